@@ -0,0 +1,162 @@
+package com.tsubauaaa.flutter_d2go;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>BatchPredictor</>
+ *
+ * Class that collects pending inference requests and submits them to the InferenceEngine in one forward call.
+ * The D2Go export accepts a list of images, so up to [maxBatchSize] input tensors that arrive within
+ * [maxBatchWaitMillis] of the first one are passed together, and the per-image detections are handed
+ * back to each caller's Callback on the worker thread.
+ */
+public class BatchPredictor {
+
+    /**
+     * <p>Receives the inference result of one submitted input tensor</>
+     */
+    public interface Callback {
+        void onPrediction(Detections prediction);
+
+        void onError(Exception e);
+    }
+
+    private static class PendingPrediction {
+        final InputTensor inputTensor;
+        final Callback callback;
+
+        PendingPrediction(InputTensor inputTensor, Callback callback) {
+            this.inputTensor = inputTensor;
+            this.callback = callback;
+        }
+    }
+
+    private final InferenceEngine engine;
+    private final int maxBatchSize;
+    private final long maxBatchWaitNanos;
+    private final BlockingQueue<PendingPrediction> queue = new LinkedBlockingQueue<>();
+    private final Thread worker;
+    // Guarded by [queue] in submit and shutdown so that no request is queued after the last drain
+    private volatile boolean running = true;
+
+    /**
+     * <p>Constructor that starts the worker thread assembling batches</>
+     *
+     * @param engine InferenceEngine of the loaded model.
+     * @param maxBatchSize Maximum number of images passed to one forward call.
+     * @param maxBatchWaitMillis Maximum time to wait for more requests after the first one of a batch arrives.
+     */
+    public BatchPredictor(InferenceEngine engine, int maxBatchSize, long maxBatchWaitMillis) {
+        this.engine = engine;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxBatchWaitMillis);
+        this.worker = new Thread(this::runLoop, "flutter_d2go-batch");
+        this.worker.start();
+    }
+
+    /**
+     * <p>Queue an input tensor for the next batch</>
+     *
+     * @param inputTensor Tensor of a single image.
+     * @param callback Called on the worker thread with the detections of this image.
+     */
+    public void submit(InputTensor inputTensor, Callback callback) {
+        synchronized (queue) {
+            if (running) {
+                queue.add(new PendingPrediction(inputTensor, callback));
+                return;
+            }
+        }
+        callback.onError(new IllegalStateException("BatchPredictor is already shut down"));
+    }
+
+    /**
+     * <p>Stop the worker thread, wait until it has finished the batch in progress and fail the requests that have not been inferred yet</>
+     *
+     * Once this returns, the engine is no longer used by this BatchPredictor and no callback is called on the worker thread anymore.
+     */
+    public void shutdown() {
+        synchronized (queue) {
+            running = false;
+        }
+        worker.interrupt();
+        if (Thread.currentThread() != worker) {
+            boolean interrupted = false;
+            while (worker.isAlive()) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        List<PendingPrediction> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        failAll(remaining, new IllegalStateException("BatchPredictor is already shut down"));
+    }
+
+    private void runLoop() {
+        List<PendingPrediction> batch = new ArrayList<>(maxBatchSize);
+        while (running) {
+            try {
+                batch.add(queue.take());
+
+                // Collect more requests until the batch is full or the deadline of the first request passes
+                final long deadline = System.nanoTime() + maxBatchWaitNanos;
+                while (batch.size() < maxBatchSize) {
+                    final long remainingNanos = deadline - System.nanoTime();
+                    final PendingPrediction next = remainingNanos > 0 ? queue.poll(remainingNanos, TimeUnit.NANOSECONDS) : queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+            } catch (InterruptedException e) {
+                failAll(batch, new IllegalStateException("BatchPredictor is already shut down"));
+                return;
+            }
+            forwardBatch(batch);
+            batch.clear();
+        }
+        failAll(batch, new IllegalStateException("BatchPredictor is already shut down"));
+    }
+
+    private void forwardBatch(List<PendingPrediction> batch) {
+        final List<InputTensor> inputTensors = new ArrayList<>(batch.size());
+        for (PendingPrediction pending : batch) {
+            inputTensors.add(pending.inputTensor);
+        }
+
+        final List<Detections> predictions;
+        try {
+            predictions = engine.forward(inputTensors);
+        } catch (Exception e) {
+            failAll(batch, e);
+            return;
+        }
+
+        // Split the per-image detections back out to their callers
+        for (int i = 0; i < batch.size(); i++) {
+            final Callback callback = batch.get(i).callback;
+            try {
+                callback.onPrediction(predictions.get(i));
+            } catch (Exception e) {
+                callback.onError(e);
+            }
+        }
+    }
+
+    private static void failAll(List<PendingPrediction> batch, Exception e) {
+        for (PendingPrediction pending : batch) {
+            pending.callback.onError(e);
+        }
+        batch.clear();
+    }
+}
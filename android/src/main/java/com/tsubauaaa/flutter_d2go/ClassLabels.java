@@ -0,0 +1,75 @@
+package com.tsubauaaa.flutter_d2go;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * <p>ClassLabels</>
+ *
+ * Class names of a loaded model and their label ids. A new instance is created for each loaded model and never
+ * changes afterwards, so the filters and formatters created for a model keep using its classes on any thread
+ * even after another model has been loaded.
+ */
+public class ClassLabels {
+
+    private final List<String> classes;
+    // Label id of each class name. Label ids of the d2go model start from 1
+    private final HashMap<String, Integer> classIds = new HashMap<>();
+    // The allowed classes of the last prediction and their label ids, reused while the same classes are requested
+    private List<String> lastAllowedClasses;
+    private boolean[] lastAllowedLabels;
+
+    /**
+     * @param classes Class names in the order of the label ids
+     */
+    public ClassLabels(List<String> classes) {
+        this.classes = Collections.unmodifiableList(new ArrayList<>(classes));
+        for (int i = 0; i < this.classes.size(); i++) {
+            classIds.put(this.classes.get(i), i + 1);
+        }
+    }
+
+    /**
+     * @param labelId Label id output by the model
+     * @return Class name of [labelId]
+     */
+    public String getClassName(long labelId) {
+        return classes.get((int) (labelId - 1));
+    }
+
+    /**
+     * @return Class names in the order of the label ids
+     */
+    public List<String> getClasses() {
+        return classes;
+    }
+
+    /**
+     * <p>Convert the allowed class names to a lookup table indexed by label id</>
+     *
+     * @param allowedClasses Class names to be included in the results. null includes all classes.
+     * @return Whether each label id is allowed, or null if all labels are allowed
+     * @throws IllegalArgumentException If [allowedClasses] contains a class that is not in the classes file
+     */
+    public synchronized boolean[] getAllowedLabels(List<String> allowedClasses) {
+        if (allowedClasses == null) {
+            return null;
+        }
+        if (allowedClasses.equals(lastAllowedClasses)) {
+            return lastAllowedLabels;
+        }
+        boolean[] allowedLabels = new boolean[classes.size() + 1];
+        for (String allowedClass : allowedClasses) {
+            Integer labelId = classIds.get(allowedClass);
+            if (labelId == null) {
+                throw new IllegalArgumentException(allowedClass + " is not in the classes file");
+            }
+            allowedLabels[labelId] = true;
+        }
+        lastAllowedClasses = new ArrayList<>(allowedClasses);
+        lastAllowedLabels = allowedLabels;
+        return allowedLabels;
+    }
+}
@@ -0,0 +1,152 @@
+package com.tsubauaaa.flutter_d2go;
+
+import java.util.Arrays;
+
+/**
+ * <p>DetectionFilter</>
+ *
+ * Class that selects the instances to be returned to Flutter from the raw D2Go outputs.
+ * Instances are dropped by score and class, limited to the top [maxDetections] by score and optionally
+ * suppressed across classes by NMS, so that masks and keypoints are only built for the remaining ones.
+ */
+public class DetectionFilter {
+
+    private final double minScore;
+    private final boolean[] allowedLabels;
+    private final int maxDetections;
+    private final float nmsThreshold;
+
+    /**
+     * <p>Constructor to initialize the filter conditions</>
+     *
+     * @param minScore If this threshold is not met, the instance is dropped.
+     * @param allowedLabels Whether each label id is kept, indexed by label id. null keeps all labels.
+     * @param maxDetections Maximum number of instances to keep. 0 or less keeps all instances.
+     * @param nmsThreshold IoU above which a lower score instance is suppressed regardless of its class.
+     *                     A negative value or NaN disables the cross-class NMS.
+     */
+    public DetectionFilter(double minScore, boolean[] allowedLabels, int maxDetections, float nmsThreshold) {
+        this.minScore = minScore;
+        this.allowedLabels = allowedLabels;
+        this.maxDetections = maxDetections;
+        this.nmsThreshold = nmsThreshold;
+    }
+
+    /**
+     * <p>Select the instances that pass the filter</>
+     *
+     * @param boxesData 4 sets of left, top, right and bottom per instance
+     * @param scoresData Score per instance
+     * @param labelsData Label id per instance
+     * @return Indexes of the selected instances. They are in descending order of score when
+     *         [maxDetections] or NMS is used, otherwise in the order of the model output.
+     */
+    public int[] select(float[] boxesData, float[] scoresData, long[] labelsData) {
+        final boolean useNms = nmsThreshold >= 0;
+        final boolean useTopK = maxDetections > 0;
+
+        // Sort keys have the score bits in the upper 32 bits and the inverted index in the lower 32 bits,
+        // so that sorting them in ascending order sorts the instances by score with ties kept in output order.
+        // Scores are never negative, so their float bits have the same order as their values.
+        final long[] keys = new long[scoresData.length];
+        int count = 0;
+        for (int i = 0; i < scoresData.length; i++) {
+            if (scoresData[i] < minScore)
+                continue;
+            if (allowedLabels != null) {
+                final long label = labelsData[i];
+                if (label < 0 || label >= allowedLabels.length || !allowedLabels[(int) label])
+                    continue;
+            }
+            keys[count++] = ((long) Float.floatToIntBits(scoresData[i]) << 32) | (0xffffffffL - i);
+        }
+
+        if (!useNms && (!useTopK || count <= maxDetections)) {
+            int[] indexes = new int[count];
+            for (int i = 0; i < count; i++) {
+                indexes[i] = indexOf(keys[i]);
+            }
+            return indexes;
+        }
+
+        if (!useNms) {
+            // Move the top [maxDetections] keys to the tail and sort only them
+            final int from = count - maxDetections;
+            selectLargest(keys, 0, count - 1, from);
+            Arrays.sort(keys, from, count);
+            int[] indexes = new int[maxDetections];
+            for (int i = 0; i < maxDetections; i++) {
+                indexes[i] = indexOf(keys[count - 1 - i]);
+            }
+            return indexes;
+        }
+
+        Arrays.sort(keys, 0, count);
+        final int limit = useTopK ? Math.min(maxDetections, count) : count;
+        int[] kept = new int[limit];
+        int keptCount = 0;
+        for (int k = count - 1; k >= 0 && keptCount < limit; k--) {
+            final int index = indexOf(keys[k]);
+            boolean suppressed = false;
+            for (int j = 0; j < keptCount; j++) {
+                if (iou(boxesData, index, kept[j]) > nmsThreshold) {
+                    suppressed = true;
+                    break;
+                }
+            }
+            if (!suppressed) {
+                kept[keptCount++] = index;
+            }
+        }
+        return keptCount == limit ? kept : Arrays.copyOf(kept, keptCount);
+    }
+
+    private static int indexOf(long key) {
+        return (int) (0xffffffffL - (key & 0xffffffffL));
+    }
+
+    /**
+     * <p>Partially sort [keys] so that the keys at [nth] and after are the largest ones (quickselect)</>
+     */
+    private static void selectLargest(long[] keys, int left, int right, int nth) {
+        while (left < right) {
+            final long pivot = keys[(left + right) >>> 1];
+            int i = left, j = right;
+            while (i <= j) {
+                while (keys[i] < pivot) i++;
+                while (keys[j] > pivot) j--;
+                if (i <= j) {
+                    final long tmp = keys[i];
+                    keys[i] = keys[j];
+                    keys[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (nth <= j) {
+                right = j;
+            } else if (nth >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    /**
+     * <p>Intersection over union of the boxes of two instances</>
+     */
+    private static float iou(float[] boxesData, int a, int b) {
+        final float left = Math.max(boxesData[4 * a], boxesData[4 * b]);
+        final float top = Math.max(boxesData[4 * a + 1], boxesData[4 * b + 1]);
+        final float right = Math.min(boxesData[4 * a + 2], boxesData[4 * b + 2]);
+        final float bottom = Math.min(boxesData[4 * a + 3], boxesData[4 * b + 3]);
+        final float intersection = Math.max(0f, right - left) * Math.max(0f, bottom - top);
+        if (intersection <= 0f) {
+            return 0f;
+        }
+        final float areaA = (boxesData[4 * a + 2] - boxesData[4 * a]) * (boxesData[4 * a + 3] - boxesData[4 * a + 1]);
+        final float areaB = (boxesData[4 * b + 2] - boxesData[4 * b]) * (boxesData[4 * b + 3] - boxesData[4 * b + 1]);
+        return intersection / (areaA + areaB - intersection);
+    }
+}
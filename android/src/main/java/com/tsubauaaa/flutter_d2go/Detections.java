@@ -0,0 +1,46 @@
+package com.tsubauaaa.flutter_d2go;
+
+/**
+ * <p>Detections</>
+ *
+ * Raw detection outputs of one image returned by an InferenceEngine, in the layout of the D2Go result dict.
+ * Masks and keypoints are only read for the instances selected by DetectionFilter,
+ * so an implementation may defer reading them until they are requested.
+ */
+public interface Detections {
+
+    /**
+     * @return 4 sets of left, top, right and bottom per instance in the coordinates of the input image
+     */
+    float[] getBoxes();
+
+    /**
+     * @return Score per instance
+     */
+    float[] getScores();
+
+    /**
+     * @return Label id per instance. Label ids start from 1.
+     */
+    long[] getLabels();
+
+    /**
+     * @return Whether the model outputs masks
+     */
+    boolean hasMasks();
+
+    /**
+     * @return 28 * 28 mask data per instance, or null if the model does not output masks
+     */
+    float[] getMasks();
+
+    /**
+     * @return Whether the model outputs keypoints
+     */
+    boolean hasKeypoints();
+
+    /**
+     * @return 17 * (x, y, score) keypoints per instance, or null if the model does not output keypoints
+     */
+    float[] getKeypoints();
+}
@@ -4,15 +4,8 @@ import android.content.Context;
 import android.content.res.AssetManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-
-import com.facebook.soloader.nativeloader.NativeLoader;
-import com.facebook.soloader.nativeloader.SystemDelegate;
-
-import org.pytorch.IValue;
-import org.pytorch.Module;
-import org.pytorch.LiteModuleLoader;
-import org.pytorch.Tensor;
-import org.pytorch.torchvision.TensorImageUtils;
+import android.os.Handler;
+import android.os.Looper;
 
 import java.io.BufferedReader;
 import java.io.File;
@@ -21,18 +14,19 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.nio.FloatBuffer;
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import androidx.annotation.NonNull;
 import io.flutter.FlutterInjector;
 import io.flutter.Log;
 import io.flutter.embedding.engine.loader.FlutterLoader;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodCall;
 import io.flutter.plugin.common.MethodChannel;
 
@@ -46,20 +40,72 @@ import static java.util.Objects.requireNonNull;
 public class FlutterD2goHandler implements MethodChannel.MethodCallHandler {
     private final Context context;
 
-    // Dealing with torchvision options problem
-    // @see <a href="https://discuss.pytorch.org/t/torchvision-ops-nms-on-android-mobile/81017/6">https://discuss.pytorch.org/t/torchvision-ops-nms-on-android-mobile/81017/6</a>
-    static {
-        if (!NativeLoader.isInitialized()) {
-            NativeLoader.init(new SystemDelegate());
+    private final InferenceEngine.Loader engineLoader;
+    // The handler holds one reference while the model is loaded, see SharedInferenceEngine
+    private SharedInferenceEngine engine;
+    // Kept to reload the model after it has been released by MemoryBudget
+    private String modelPathInAppDir;
+    private int maxBatchSize = 1;
+    private int maxBatchWaitMillis;
+    private BatchPredictor batchPredictor;
+    private FrameRecorder frameRecorder;
+    // Set to stop the video being inferred by videoStreamHandler
+    private AtomicBoolean videoCancelled;
+    private final MemoryBudget memoryBudget;
+    private final YuvToRgbConverter yuvToRgbConverter;
+    private final MemoryBudget.Consumer modelMemory = new MemoryBudget.Consumer() {
+        @Override
+        public long getRetainedBytes() {
+            // The size of the model file approximates the memory held by the loaded model
+            return engine == null || modelPathInAppDir == null ? 0 : new File(modelPathInAppDir).length();
         }
-        NativeLoader.loadLibrary("torchvision_ops");
-    }
 
-    private Module module;
-    private final ArrayList<String> classes = new ArrayList<>();
+        @Override
+        public void trimMemory(int level) {
+            releaseModel();
+        }
+    };
+    // Formats the results with the classes of the loaded model. It is replaced, never modified, when a model is loaded,
+    // so each prediction takes it once on the main thread and keeps using it on its own thread
+    private PredictionFormatter predictionFormatter;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final HashMap<Integer, StreamSession> streamSessions = new HashMap<>();
+    private int lastStreamSessionId;
+    // Receives the results of the stream sessions, set while Flutter listens to the stream channel
+    private EventChannel.EventSink streamSessionSink;
+
+    public FlutterD2goHandler(Context context, MemoryBudget memoryBudget) {
+        this(context, memoryBudget, PyTorchInferenceEngine::load);
+    }
 
-    public FlutterD2goHandler(Context context) {
+    /**
+     * @param context Context of the application
+     * @param memoryBudget Tracks the model and the caches of this handler
+     * @param engineLoader Creates the InferenceEngine of the model passed to loadModel
+     */
+    public FlutterD2goHandler(Context context, MemoryBudget memoryBudget, InferenceEngine.Loader engineLoader) {
         this.context = context;
+        this.memoryBudget = memoryBudget;
+        this.engineLoader = engineLoader;
+        this.yuvToRgbConverter = new YuvToRgbConverter(context);
+        memoryBudget.register("stream image converter", MemoryBudget.PRIORITY_CACHE, yuvToRgbConverter);
+        memoryBudget.register("model", MemoryBudget.PRIORITY_MODEL, modelMemory);
+    }
+
+    /**
+     * <p>Release the model, the frame log, the stream sessions and the caches, and stop tracking them in MemoryBudget</>
+     */
+    public void close() {
+        cancelVideo();
+        for (StreamSession session : streamSessions.values()) {
+            closeStreamSession(session);
+        }
+        streamSessions.clear();
+        closeFrameRecorder();
+        // Release the model and the caches while they are still tracked
+        memoryBudget.releaseAll();
+        memoryBudget.unregister(modelMemory);
+        memoryBudget.unregister(yuvToRgbConverter);
     }
 
     @Override
@@ -74,6 +120,27 @@ public class FlutterD2goHandler implements MethodChannel.MethodCallHandler {
             case "predictStreamImage":
                 predictStreamImage(call, result);
                 break;
+            case "benchmarkInputFormats":
+                benchmarkInputFormats(call, result);
+                break;
+            case "startFrameRecording":
+                startFrameRecording(call, result);
+                break;
+            case "stopFrameRecording":
+                stopFrameRecording(result);
+                break;
+            case "replayFrames":
+                replayFrames(call, result);
+                break;
+            case "startStreamSession":
+                startStreamSession(call, result);
+                break;
+            case "addStreamSessionFrame":
+                addStreamSessionFrame(call, result);
+                break;
+            case "stopStreamSession":
+                stopStreamSession(call, result);
+                break;
             default:
                 result.notImplemented();
                 break;
@@ -82,33 +149,111 @@ public class FlutterD2goHandler implements MethodChannel.MethodCallHandler {
 
 
     /**
-     * <p>Load the d2go model and get org.pytorch.Module in [module]. Read the classes file and add classes to [classes]</>
+     * <p>Load the d2go model and get InferenceEngine in [engine]. Read the classes file into [predictionFormatter]</>
      *
-     * @param call modelPath The path of the D2Go model loaded by the load of org.pytorch.Module.
+     * @param call modelPath The path of the D2Go model loaded by [engineLoader].
      *             labelPath The path of the file where the class is written.
+     *             maxBatchSize The maximum number of images inferred in one forward call. 1 disables batching.
+     *             maxBatchWaitMillis The maximum time to wait for more images after the first one of a batch arrives.
      * @param result If successful, return the string "success" in result.success.
      */
     private void loadModel(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
-        classes.clear();
+        releaseModel();
+        modelPathInAppDir = null;
+        predictionFormatter = null;
         String modelPathInFlutterAsset = call.argument("modelPath");
         String modelPathInAppDir = getFilePathInAppDir(modelPathInFlutterAsset);
         String labelPathInFlutterAsset = call.argument("labelPath");
         String labelPathInAppDir = getFilePathInAppDir(labelPathInFlutterAsset);
+        maxBatchSize = call.argument("maxBatchSize");
+        maxBatchWaitMillis = call.argument("maxBatchWaitMillis");
         File labels = new File(requireNonNull(labelPathInAppDir));
         try {
-            module = LiteModuleLoader.load(modelPathInAppDir);
-            BufferedReader bufferedReader = new BufferedReader(new FileReader(labels));
-            String line;
-            while ((line = bufferedReader.readLine()) != null) {
-                classes.add(line);
+            final List<String> classes = new ArrayList<>();
+            try (BufferedReader bufferedReader = new BufferedReader(new FileReader(labels))) {
+                String line;
+                while ((line = bufferedReader.readLine()) != null) {
+                    classes.add(line);
+                }
             }
+            loadModule(modelPathInAppDir);
+            predictionFormatter = new PredictionFormatter(new ClassLabels(classes));
+            this.modelPathInAppDir = modelPathInAppDir;
             result.success("success");
         } catch (Exception e) {
+            releaseModel();
             Log.e("flutter_d2go", modelPathInFlutterAsset + " or " + labelPathInFlutterAsset + " are not a proper model or label", e);
             result.error("load model or label failed", modelPathInFlutterAsset + " or " + labelPathInFlutterAsset + " are not a proper model or label", e);
         }
     }
 
+    /**
+     * <p>Load InferenceEngine in [engine] and start the batch if batching is enabled</>
+     *
+     * @param modelPathInAppDir The path of the D2Go model under Application directory.
+     * @throws Exception If the file is not a proper model
+     */
+    private void loadModule(String modelPathInAppDir) throws Exception {
+        engine = new SharedInferenceEngine(engineLoader.load(modelPathInAppDir));
+        if (maxBatchSize > 1) {
+            // The batch uses the reference of the handler, which is released only after the batch has been shut down
+            batchPredictor = new BatchPredictor(engine.engine, maxBatchSize, maxBatchWaitMillis);
+        }
+    }
+
+    /**
+     * <p>Stop the batch and release [engine]. The model is loaded again by ensureModel on the next prediction</>
+     *
+     * The model is closed right away unless a replay, video, benchmark or stream session frame still uses it,
+     * in which case it is closed when the last of them finishes.
+     */
+    private void releaseModel() {
+        if (batchPredictor != null) {
+            batchPredictor.shutdown();
+            batchPredictor = null;
+        }
+        if (engine != null) {
+            engine.release();
+            engine = null;
+        }
+    }
+
+    /**
+     * <p>Make sure that [engine] is loaded, reloading it if it has been released by MemoryBudget</>
+     *
+     * @param result If the model cannot be loaded, the error is registered in result.error.
+     * @return true if [engine] can be used
+     */
+    private boolean ensureModel(@NonNull MethodChannel.Result result) {
+        try {
+            ensureModelLoaded();
+            return true;
+        } catch (IllegalStateException e) {
+            result.error("model not loaded", e.getMessage(), null);
+            return false;
+        }
+    }
+
+    /**
+     * <p>Load [engine] again if it has been released by MemoryBudget</>
+     *
+     * @throws IllegalStateException If loadModel has not been called or the model cannot be loaded
+     */
+    private void ensureModelLoaded() {
+        if (engine != null) {
+            return;
+        }
+        if (modelPathInAppDir == null) {
+            throw new IllegalStateException("loadModel must be called before prediction");
+        }
+        try {
+            loadModule(modelPathInAppDir);
+        } catch (Exception e) {
+            Log.e("flutter_d2go", "Reloading " + modelPathInAppDir + " failed", e);
+            throw new IllegalStateException("Reloading " + modelPathInAppDir + " failed", e);
+        }
+    }
+
     /**
      * <p>Copy the files in flutter asset to Android application directory</>
      *
@@ -176,221 +321,728 @@ public class FlutterD2goHandler implements MethodChannel.MethodCallHandler {
      * @param result If successful, return a formatted the inference result with result.success.
      */
     private void predictImage(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
+        if (!ensureModel(result)) {
+            return;
+        }
 
         byte[] imageBytes = call.argument("image");
         ArrayList<Double> meanDouble = call.argument("mean");
         ArrayList<Double> stdDouble = call.argument("std");
-        double minScore = call.argument("minScore");
         int inputWidth = call.argument("inputWidth");
         int inputHeight = call.argument("inputHeight");
 
+        final PredictionFormatter formatter = predictionFormatter;
+        final DetectionFilter filter;
+        final InputTensorFormat inputFormat;
+        try {
+            filter = createDetectionFilter(formatter.getClassLabels(), call);
+            inputFormat = InputTensorFormat.fromFormatName(call.argument("inputFormat"));
+        } catch (IllegalArgumentException e) {
+            result.error("invalid predict options", e.getMessage(), null);
+            return;
+        }
+
         // Create a bitmap object from image and fit the size to the model
         Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, requireNonNull(imageBytes).length);
         Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, inputWidth, inputHeight, true);
 
         // Get formatted inference results and register in result.success
-        result.success(createOutputsFromPredictions(resizedBitmap, meanDouble, stdDouble, minScore, bitmap.getWidth(), bitmap.getHeight()));
+        final int width = bitmap.getWidth();
+        final int height = bitmap.getHeight();
+        runInference(createInputTensor(resizedBitmap, meanDouble, stdDouble, inputFormat), result,
+                detections -> formatter.format(detections, filter, resizedBitmap.getWidth(), resizedBitmap.getHeight(), width, height));
     }
 
 
     /**
      * <p>Create an input image from camera streaming image for inference and return the inference result to Flutter</>
      *
+     * If frame recording is started, the frame and its processing time are appended to the frame log.
+     *
      * @param call Method call called from Flutter. Contains various arguments.
      * @param result If successful, return a formatted the inference result with result.success.
      */
     private void predictStreamImage(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
+        final long arrivalNanos = System.nanoTime();
+        if (!ensureModel(result)) {
+            return;
+        }
+        final StreamFrame frame = createStreamFrame(call);
+
+        final PredictionFormatter formatter = predictionFormatter;
+        final DetectionFilter filter;
+        final InputTensorFormat inputFormat;
+        try {
+            filter = createDetectionFilter(formatter.getClassLabels(), frame.minScore, frame.allowedClasses, frame.maxDetections, frame.nmsThreshold);
+            inputFormat = InputTensorFormat.fromFormatName(frame.inputFormat);
+        } catch (IllegalArgumentException e) {
+            result.error("invalid predict options", e.getMessage(), null);
+            return;
+        }
+
+        // Create a bitmap object from the imageMap and add fit the size to the model and orientation by 90 degrees
+        final Bitmap resizedBitmap = createStreamBitmap(frame);
+
+        // Get formatted inference results and register in result.success
+        final FrameRecorder recorder = frameRecorder;
+        runInference(inputFormat.createTensor(resizedBitmap, frame.mean, frame.std), result, detections -> {
+            final List<Map<String, Object>> outputs = createStreamOutputs(formatter, detections, filter, resizedBitmap, frame);
+            if (recorder != null) {
+                recordFrame(recorder, frame, arrivalNanos);
+            }
+            return outputs;
+        });
+    }
+
+    /**
+     * <p>Read the camera streaming image and the predict options from the method call</>
+     *
+     * @param call Method call called from Flutter. Contains various arguments.
+     * @return StreamFrame of the arguments
+     */
+    private StreamFrame createStreamFrame(@NonNull MethodCall call) {
+        ArrayList<byte[]> imageBytesList = call.argument("imageBytesList");
+        return createStreamFrame(call, requireNonNull(imageBytesList));
+    }
+
+    private StreamFrame createStreamFrame(@NonNull MethodCall call, List<byte[]> imageBytesList) {
+        ArrayList<Integer> imageBytesPerPixel = call.argument("imageBytesPerPixel");
         int width = call.argument("width");
         int height = call.argument("height");
+        int rotation = call.argument("rotation");
         int inputWidth = call.argument("inputWidth");
         int inputHeight = call.argument("inputHeight");
         ArrayList<Double> meanDouble = call.argument("mean");
         ArrayList<Double> stdDouble = call.argument("std");
         double minScore = call.argument("minScore");
+        List<String> allowedClasses = call.argument("allowedClasses");
+        int maxDetections = call.argument("maxDetections");
+        Double nmsThreshold = call.argument("nmsThreshold");
+        String inputFormat = call.argument("inputFormat");
+
+        return new StreamFrame(imageBytesList, requireNonNull(imageBytesPerPixel), width, height, rotation, inputWidth, inputHeight,
+                toFloatPrimitives(requireNonNull(meanDouble).toArray(new Double[0])),
+                toFloatPrimitives(requireNonNull(stdDouble).toArray(new Double[0])),
+                minScore, allowedClasses, maxDetections, nmsThreshold == null ? Float.NaN : nmsThreshold.floatValue(), inputFormat);
+    }
+
+    /**
+     * <p>Convert the camera streaming image to the bitmap for inference</>
+     *
+     * @param frame Camera streaming image and its predict options
+     * @return Bitmap resized to the input size and rotated by the rotation of [frame]
+     */
+    private Bitmap createStreamBitmap(StreamFrame frame) {
+        StreamImageUtils streamImageUtils = new StreamImageUtils(frame.imageBytesList, frame.imageBytesPerPixel, frame.width, frame.height, frame.rotation, yuvToRgbConverter);
+        return streamImageUtils.getBitmap(frame.inputWidth, frame.inputHeight);
+    }
 
-        StreamImageUtils streamImageUtils = new StreamImageUtils(call, context);
+    /**
+     * <p>Format the detections of a camera streaming image</>
+     *
+     * The camera streaming image is tilted 90 degrees, so the vertical and horizontal directions are reversed.
+     */
+    private static List<Map<String, Object>> createStreamOutputs(PredictionFormatter formatter, Detections detections, DetectionFilter filter,
+                                                                 Bitmap resizedBitmap, StreamFrame frame) {
+        return formatter.format(detections, filter, resizedBitmap.getWidth(), resizedBitmap.getHeight(), frame.height, frame.width);
+    }
 
-        // Create a bitmap object from the imageMap and add fit the size to the model and orientation by 90 degrees
-        Bitmap resizedBitmap = streamImageUtils.getBitmap(inputWidth, inputHeight);
+    /**
+     * <p>Format the detections of a video frame</>
+     *
+     * Unlike camera streaming images, video frames carry their real rotation, so the vertical and horizontal
+     * directions are only reversed when the frame has been rotated by 90 or 270 degrees.
+     */
+    private static List<Map<String, Object>> createVideoOutputs(PredictionFormatter formatter, Detections detections, DetectionFilter filter,
+                                                                Bitmap resizedBitmap, StreamFrame frame) {
+        final boolean swapped = frame.rotation % 180 != 0;
+        final int outputWidth = swapped ? frame.height : frame.width;
+        final int outputHeight = swapped ? frame.width : frame.height;
+        return formatter.format(detections, filter, resizedBitmap.getWidth(), resizedBitmap.getHeight(), outputWidth, outputHeight);
+    }
 
-        // Get formatted inference results and register in result.success
-        // the camera streaming imageMap is tilted 90 degrees, so the vertical and horizontal directions are reversed
-        result.success(createOutputsFromPredictions(resizedBitmap, meanDouble, stdDouble, minScore, height, width));
+    /**
+     * <p>Append [frame] to the frame log. A failure is only logged so that the prediction is not affected</>
+     */
+    private static void recordFrame(FrameRecorder recorder, StreamFrame frame, long arrivalNanos) {
+        try {
+            recorder.record(frame, arrivalNanos, System.nanoTime() - arrivalNanos);
+        } catch (IOException e) {
+            Log.e("flutter_d2go", "Recording frame failed", e);
+        }
     }
 
     /**
-     * <p>Infer using the D2Go model, format the result and return it</>
+     * <p>Start appending the camera streaming images passed to predictStreamImage to a frame log</>
      *
-     * @param bitmap Bitmap formatted for inference
-     * @param meanDouble Average value used in Normalize
-     * @param stdDouble Standard deviation used in Normalize
-     * @param minScore If this threshold is not met, it will not be included in the results
-     * @param width The size of the width of the image to be inferred
-     * @param height The size of the height of the image to be inferred
-     * @return A formatted version of the inference result
-     *         The format is List of { "rect": { "left": Float, "top": Float, "right": Float, "bottom": Float },
-     *                                 "mask": [byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte ...],
-     *                                 "keypoints": [[Float, Float], [Float, Float], [Float, Float], [Float, Float], ...],
-     *                                 "confidenceInClass": Float, "detectedClass": String }. "mask" and "keypoints" do not exist on some models.
+     * @param call path The path of the frame log. Frames are appended if it already exists.
+     * @param result If successful, return the string "success" in result.success.
      */
-    private List<Map<String, Object>> createOutputsFromPredictions(Bitmap bitmap, ArrayList<Double> meanDouble, ArrayList<Double> stdDouble, double minScore, int width, int height ) {
+    private void startFrameRecording(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
+        String path = call.argument("path");
+        closeFrameRecorder();
+        try {
+            frameRecorder = new FrameRecorder(new File(requireNonNull(path)));
+            result.success("success");
+        } catch (IOException e) {
+            Log.e("flutter_d2go", "Opening frame log " + path + " failed", e);
+            result.error("start frame recording failed", "Opening frame log " + path + " failed", e.getMessage());
+        }
+    }
 
-        // Convert [mean] and [std] to float
-        float[] mean = toFloatPrimitives(requireNonNull(meanDouble).toArray(new Double[0]));
-        float[] std = toFloatPrimitives(requireNonNull(stdDouble).toArray(new Double[0]));
+    /**
+     * <p>Stop recording the camera streaming images</>
+     *
+     * @param result Return the string "success" in result.success.
+     */
+    private void stopFrameRecording(@NonNull MethodChannel.Result result) {
+        closeFrameRecorder();
+        result.success("success");
+    }
 
-        // Create a dtype torch.float32 tensor to input to the model with [inputWidth], [inputHeight] size and bitmap data
-        final FloatBuffer floatBuffer = Tensor.allocateFloatBuffer(3 * bitmap.getWidth() * bitmap.getHeight());
-        TensorImageUtils.bitmapToFloatBuffer(bitmap,0,0, bitmap.getWidth(), bitmap.getHeight(), mean, std, floatBuffer, 0);
-        final Tensor inputTensor = Tensor.fromBlob(floatBuffer, new long[] {3, bitmap.getHeight(), bitmap.getWidth()});
+    private void closeFrameRecorder() {
+        if (frameRecorder == null) {
+            return;
+        }
+        try {
+            frameRecorder.close();
+        } catch (IOException e) {
+            Log.e("flutter_d2go", "Closing frame log failed", e);
+        }
+        frameRecorder = null;
+    }
 
-        // inference
-        IValue[] outputTuple = module.forward(IValue.listFrom(inputTensor)).toTuple();
+    /**
+     * <p>Feed the frames of a frame log through the stream preprocessing, inference and formatting again and return the throughput</>
+     *
+     * The replay runs on its own thread and calls the engine directly, so it should not be run
+     * while other predictions are in progress.
+     *
+     * @param call path The path of the frame log.
+     *             realtime If true, frames are fed at their recorded arrival times, otherwise as fast as possible.
+     * @param result If successful, return { "frames": int, "elapsedMillis": double, "framesPerSecond": double,
+     *               "averageProcessingMillis": double, "recordedAverageProcessingMillis": double } with result.success.
+     */
+    private void replayFrames(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
+        String path = call.argument("path");
+        boolean realtime = call.argument("realtime");
+        if (!ensureModel(result)) {
+            return;
+        }
+        final SharedInferenceEngine replayEngine = engine.acquire();
+        final PredictionFormatter replayFormatter = predictionFormatter;
+
+        new Thread(() -> {
+            // The frames are converted with the same RenderScript preprocessing as predictStreamImage
+            final FrameReplayDriver driver = new FrameReplayDriver(replayEngine.engine, replayFormatter,
+                    frame -> InputTensorFormat.fromFormatName(frame.inputFormat).createTensor(createStreamBitmap(frame), frame.mean, frame.std));
+            try (FrameReplayer replayer = new FrameReplayer(new File(requireNonNull(path)))) {
+                final Map<String, Object> report = driver.run(replayer, realtime);
+                mainHandler.post(() -> result.success(report));
+            } catch (Exception e) {
+                Log.e("flutter_d2go", "Replaying frame log " + path + " failed", e);
+                mainHandler.post(() -> result.error("replay frames failed", "Replaying frame log " + path + " failed", e.getMessage()));
+            } finally {
+                replayEngine.release();
+            }
+        }, "flutter_d2go-replay").start();
+    }
 
-        final Map<String, IValue> map = outputTuple[1].toList()[0].toDictStringKey();
+    /**
+     * <p>Validate and precompute the configuration of a camera stream once, so that its frames only carry the planes</>
+     *
+     * @param call The arguments of predictStreamImage except for imageBytesList, with
+     *             maxPendingFrames Maximum number of frames in progress. Frames that arrive beyond it are dropped.
+     * @param result If successful, return the session id (int) with result.success.
+     */
+    private void startStreamSession(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
+        if (!ensureModel(result)) {
+            return;
+        }
+        int maxPendingFrames = call.argument("maxPendingFrames");
 
-        List<Map<String, Object>> outputs = new ArrayList<>();
+        final StreamSession session;
+        try {
+            final StreamFrame config = createStreamFrame(call, Collections.emptyList());
+            final PredictionFormatter formatter = predictionFormatter;
+            final DetectionFilter filter = createDetectionFilter(formatter.getClassLabels(), config.minScore, config.allowedClasses,
+                    config.maxDetections, config.nmsThreshold);
+            session = new StreamSession(lastStreamSessionId + 1, config, formatter, filter, maxPendingFrames, new YuvToRgbConverter(context));
+        } catch (IllegalArgumentException e) {
+            result.error("invalid stream session", e.getMessage(), null);
+            return;
+        }
+        lastStreamSessionId = session.id;
+        streamSessions.put(session.id, session);
+        memoryBudget.register("stream session " + session.id, MemoryBudget.PRIORITY_POOL, session);
+        memoryBudget.register("stream session " + session.id + " converter", MemoryBudget.PRIORITY_CACHE, session.converter);
+        result.success(session.id);
+    }
 
-        // Formatting inference results
-        if (map.containsKey("boxes")) {
-            final boolean hasMasks = map.containsKey("masks");
-            final boolean hasKeypoints = map.containsKey("keypoints");
+    /**
+     * <p>Queue a camera streaming image of a stream session. The result is sent to the stream channel</>
+     *
+     * If frame recording is started, the frame and its processing time are appended to the frame log.
+     *
+     * @param call sessionId The id returned by startStreamSession.
+     *             imageBytesList Bytes of the Y, U and V planes of the camera streaming image.
+     * @param result If successful, return the index of the frame with result.success,
+     *               or -1 if the frame is dropped because maxPendingFrames frames are in progress.
+     */
+    private void addStreamSessionFrame(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
+        final long arrivalNanos = System.nanoTime();
+        int sessionId = call.argument("sessionId");
+        ArrayList<byte[]> imageBytesList = call.argument("imageBytesList");
+
+        final StreamSession session = streamSessions.get(sessionId);
+        if (session == null) {
+            result.error("unknown stream session", "Stream session " + sessionId + " is not started", null);
+            return;
+        }
+        if (imageBytesList == null || imageBytesList.size() != 3) {
+            result.error("invalid stream frame", "imageBytesList must have the Y, U and V planes", null);
+            return;
+        }
+        if (!ensureModel(result)) {
+            return;
+        }
+        final StreamSession.FrameBuffers buffers = session.acquireBuffers();
+        if (buffers == null) {
+            // Drop the frame rather than queuing it behind the frames in progress
+            result.success(-1);
+            return;
+        }
 
-            final Tensor boxesTensor = requireNonNull(map.get("boxes")).toTensor();
-            final Tensor scoresTensor = requireNonNull(map.get("scores")).toTensor();
-            final Tensor labelsTensor = requireNonNull(map.get("labels")).toTensor();
+        final SharedInferenceEngine frameEngine = engine.acquire();
+        final BatchPredictor frameBatchPredictor = batchPredictor;
+        final FrameRecorder recorder = frameRecorder;
+        session.execute(() -> {
+            try {
+                predictStreamSessionFrame(session, buffers, imageBytesList, arrivalNanos, frameEngine.engine, frameBatchPredictor, recorder);
+            } finally {
+                frameEngine.release();
+            }
+        });
+        result.success(buffers.frameIndex);
+    }
 
-            // [boxesData] has 4 sets of left, top, right and bottom per instance
-            // boxesData = [left1, top1, right1, bottom1, left2, top2, right2, bottom2, left3, top3, ..., bottomN]
-            final float[] boxesData = boxesTensor.getDataAsFloatArray();
-            final float[] scoresData = scoresTensor.getDataAsFloatArray();
-            final long[] labelsData = labelsTensor.getDataAsLongArray();
+    /**
+     * <p>Preprocess, infer and format a frame of a stream session on the thread of the session</>
+     *
+     * If batching is enabled, the tensor is queued in [frameBatchPredictor] and the result is formatted
+     * on the batch thread, so the session can prepare the next frame in the meantime.
+     */
+    private void predictStreamSessionFrame(StreamSession session, StreamSession.FrameBuffers buffers, List<byte[]> imageBytesList, long arrivalNanos,
+                                           InferenceEngine frameEngine, BatchPredictor frameBatchPredictor, FrameRecorder recorder) {
+        final int frameIndex = buffers.frameIndex;
+        final InputTensor inputTensor;
+        try {
+            inputTensor = session.prepareInput(imageBytesList, buffers);
+        } catch (Exception e) {
+            session.releaseBuffers(buffers);
+            Log.e("flutter_d2go", "Preparing frame " + frameIndex + " of stream session " + session.id + " failed", e);
+            sendStreamSessionError(session, frameIndex, e);
+            return;
+        }
 
-            // Inferred number of all instances
-            final int totalInstances = scoresData.length;
+        final BatchPredictor.Callback callback = new BatchPredictor.Callback() {
+            @Override
+            public void onPrediction(Detections prediction) {
+                // The input tensor is no longer needed once it has been inferred
+                session.releaseBuffers(buffers);
+                final List<Map<String, Object>> outputs = session.formatter.format(prediction, session.filter,
+                        session.tensorWidth, session.tensorHeight, session.outputWidth, session.outputHeight);
+                if (recorder != null) {
+                    recordFrame(recorder, session.createFrame(imageBytesList), arrivalNanos);
+                }
+                sendStreamSessionEvent(session, frameIndex, outputs);
+            }
 
-            for (int i = 0; i < totalInstances; i++) {
-                if (scoresData[i] < minScore)
-                    continue;
-                Map<String, Object> output = new LinkedHashMap<>();
-                Map<String, Float> rect = new LinkedHashMap<>();
+            @Override
+            public void onError(Exception e) {
+                session.releaseBuffers(buffers);
+                Log.e("flutter_d2go", "Inferring frame " + frameIndex + " of stream session " + session.id + " failed", e);
+                sendStreamSessionError(session, frameIndex, e);
+            }
+        };
+        if (frameBatchPredictor != null) {
+            frameBatchPredictor.submit(inputTensor, callback);
+            return;
+        }
+        try {
+            callback.onPrediction(frameEngine.forward(inputTensor));
+        } catch (Exception e) {
+            callback.onError(e);
+        }
+    }
 
-                // The increase / decrease ratio of width between the formatted bitmap and the original image
-                float imageWidthScale = width / (float) bitmap.getWidth();
-                float imageHeightScale = height / (float) bitmap.getHeight();
+    private void sendStreamSessionEvent(StreamSession session, int frameIndex, List<Map<String, Object>> outputs) {
+        final Map<String, Object> event = new LinkedHashMap<>();
+        event.put("sessionId", session.id);
+        event.put("frameIndex", frameIndex);
+        event.put("predictions", outputs);
+        mainHandler.post(() -> {
+            if (streamSessionSink != null && !session.isClosed()) {
+                streamSessionSink.success(event);
+            }
+        });
+    }
 
-                // Set rect to a value that matches the original image
-                rect.put("left", boxesData[4 * i] * imageWidthScale);
-                rect.put("top", boxesData[4 * i + 1] * imageHeightScale);
-                rect.put("right", boxesData[4 * i + 2] * imageWidthScale);
-                rect.put("bottom", boxesData[4 * i + 3] * imageHeightScale);
+    private void sendStreamSessionError(StreamSession session, int frameIndex, Exception e) {
+        final Map<String, Object> details = new LinkedHashMap<>();
+        details.put("sessionId", session.id);
+        details.put("frameIndex", frameIndex);
+        mainHandler.post(() -> {
+            if (streamSessionSink != null && !session.isClosed()) {
+                streamSessionSink.error("predict stream frame failed", String.valueOf(e.getMessage()), details);
+            }
+        });
+    }
 
-                output.put("rect", rect);
+    /**
+     * <p>Stop a stream session and release its buffers. The results of its frames in progress are not sent</>
+     *
+     * @param call sessionId The id returned by startStreamSession.
+     * @param result If successful, return the string "success" in result.success.
+     */
+    private void stopStreamSession(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
+        int sessionId = call.argument("sessionId");
+        final StreamSession session = streamSessions.remove(sessionId);
+        if (session == null) {
+            result.error("unknown stream session", "Stream session " + sessionId + " is not started", null);
+            return;
+        }
+        closeStreamSession(session);
+        result.success("success");
+    }
 
-                if (hasMasks) {
-                    // [rawMaskData] is the instance mask data in the bounding box and has a size of 28 * 28
-                    // @see <a href="https://github.com/facebookresearch/detectron2/discussions/3393">https://github.com/facebookresearch/detectron2/discussions/3393</a>
-                    final Tensor rawMasksTensor = requireNonNull(map.get("masks")).toTensor();
-                    final float[] rawMasksData = rawMasksTensor.getDataAsFloatArray();
-                    output.put("mask", getMaskBytes(rawMasksData, i));
-                }
+    private void closeStreamSession(StreamSession session) {
+        memoryBudget.unregister(session);
+        memoryBudget.unregister(session.converter);
+        session.close();
+    }
 
-                if (hasKeypoints) {
-                    // keypointsData is in a format with 17 * (x, y, score) for each instance. (coco estimates have 17 keypoints)
-                    final Tensor keypointsTensor = requireNonNull(map.get("keypoints")).toTensor();
-                    final float[] keypointsData = keypointsTensor.getDataAsFloatArray();
-                    output.put("keypoints", getKeypointsList(keypointsData, i, width, height));
-                }
+    /**
+     * <p>StreamHandler of the EventChannel that sends the results of the stream sessions</>
+     *
+     * Each frame is sent as { "sessionId": int, "frameIndex": int, "predictions": List }.
+     * A frame that fails is sent as an error with { "sessionId": int, "frameIndex": int } in its details.
+     */
+    public final EventChannel.StreamHandler streamSessionHandler = new EventChannel.StreamHandler() {
+        @Override
+        public void onListen(Object arguments, EventChannel.EventSink events) {
+            streamSessionSink = events;
+        }
 
-                output.put("confidenceInClass", scoresData[i]);
-                output.put("detectedClass", classes.get((int)(labelsData[i] - 1)));
+        @Override
+        public void onCancel(Object arguments) {
+            streamSessionSink = null;
+        }
+    };
 
-                outputs.add(output);
+    /**
+     * <p>StreamHandler of the EventChannel that infers the frames of a video file</>
+     *
+     * The arguments of the listen are the same as predictStreamImage except for the image, with
+     * `path` The path of the video file and `frameStride` Interval of the inferred frames.
+     * Each inferred frame is sent as { "frameIndex": int, "timestampMicros": int, "predictions": List }.
+     */
+    public final EventChannel.StreamHandler videoStreamHandler = new EventChannel.StreamHandler() {
+        @Override
+        public void onListen(Object arguments, EventChannel.EventSink events) {
+            if (!(arguments instanceof Map)) {
+                events.error("invalid predict options", "The arguments of the video stream must be a map", null);
+                return;
             }
+            predictVideo((Map<?, ?>) arguments, events);
         }
-        return outputs;
-    }
 
+        @Override
+        public void onCancel(Object arguments) {
+            cancelVideo();
+        }
+    };
 
     /**
-     * <p>Converts mask data to byte array of bitmap image and returns</>
+     * <p>Decode a video file with MediaCodec and send the inference result of every [frameStride]-th frame to Flutter</>
+     *
+     * Frames are decoded straight to YUV420 planes and go through the same preprocessing as camera streaming images.
+     * The decoding and inference run on their own thread and call the engine directly.
      *
-     * @param rawMasksData Mask data included in the inference result.
-     * @param instanceIndex Inferred instance number
-     * @return bitmap image byte array
+     * @param arguments Arguments of the listen
+     * @param events If successful, send a formatted the inference result of each frame with events.success.
      */
-    private byte[] getMaskBytes(float[] rawMasksData, int instanceIndex) {
-        // rawMasksData contains 28 * 28 mask data for the number of instances
-        int rawMaskWidth = 28;
-        final float[] rawMask = Arrays.copyOfRange(rawMasksData, instanceIndex * rawMaskWidth * rawMaskWidth, (instanceIndex + 1) * rawMaskWidth * rawMaskWidth);
+    private void predictVideo(Map<?, ?> arguments, EventChannel.EventSink events) {
+        cancelVideo();
+        final String path;
+        final int frameStride, inputWidth, inputHeight, maxDetections;
+        final float[] mean, std;
+        final double minScore;
+        final List<String> allowedClasses;
+        final float nmsThreshold;
+        final String inputFormatName;
+        try {
+            path = getArgument(arguments, "path", String.class, true);
+            frameStride = Math.max(1, getArgument(arguments, "frameStride", Integer.class, true));
+            inputWidth = getArgument(arguments, "inputWidth", Integer.class, true);
+            inputHeight = getArgument(arguments, "inputHeight", Integer.class, true);
+            mean = toFloatPrimitives(getListArgument(arguments, "mean", Double.class, true).toArray(new Double[0]));
+            std = toFloatPrimitives(getListArgument(arguments, "std", Double.class, true).toArray(new Double[0]));
+            minScore = getArgument(arguments, "minScore", Double.class, true);
+            allowedClasses = getListArgument(arguments, "allowedClasses", String.class, false);
+            maxDetections = getArgument(arguments, "maxDetections", Integer.class, true);
+            final Double nmsThresholdDouble = getArgument(arguments, "nmsThreshold", Double.class, false);
+            nmsThreshold = nmsThresholdDouble == null ? Float.NaN : nmsThresholdDouble.floatValue();
+            inputFormatName = getArgument(arguments, "inputFormat", String.class, false);
+        } catch (IllegalArgumentException e) {
+            events.error("invalid predict options", e.getMessage(), null);
+            return;
+        }
 
-        // color channel (RGBA)
-        final int ch = 4;
+        try {
+            ensureModelLoaded();
+        } catch (IllegalStateException e) {
+            events.error("model not loaded", e.getMessage(), null);
+            return;
+        }
+        final PredictionFormatter formatter = predictionFormatter;
+        final DetectionFilter filter;
+        final InputTensorFormat inputFormat;
+        try {
+            filter = createDetectionFilter(formatter.getClassLabels(), minScore, allowedClasses, maxDetections, nmsThreshold);
+            inputFormat = InputTensorFormat.fromFormatName(inputFormatName);
+        } catch (IllegalArgumentException e) {
+            events.error("invalid predict options", e.getMessage(), null);
+            return;
+        }
+        final SharedInferenceEngine videoEngine = engine.acquire();
+        final AtomicBoolean cancelled = new AtomicBoolean(false);
+        videoCancelled = cancelled;
 
-        final byte[] pixels = new byte[rawMaskWidth * rawMaskWidth * ch];
+        new Thread(() -> {
+            try {
+                new VideoFrameDecoder(requireNonNull(path)).decode(frameStride, cancelled,
+                        (imageBytesList, imageBytesPerPixel, width, height, rotation, frameIndex, timestampMicros) -> {
+                    final StreamFrame frame = new StreamFrame(imageBytesList, imageBytesPerPixel, width, height, rotation,
+                            inputWidth, inputHeight, mean, std, minScore, allowedClasses, maxDetections, nmsThreshold, inputFormatName);
+                    final Bitmap resizedBitmap = createStreamBitmap(frame);
+                    final InputTensor inputTensor = inputFormat.createTensor(resizedBitmap, mean, std);
+                    final List<Map<String, Object>> outputs = createVideoOutputs(formatter, videoEngine.engine.forward(inputTensor), filter, resizedBitmap, frame);
+
+                    final Map<String, Object> event = new LinkedHashMap<>();
+                    event.put("frameIndex", frameIndex);
+                    event.put("timestampMicros", timestampMicros);
+                    event.put("predictions", outputs);
+                    mainHandler.post(() -> {
+                        if (!cancelled.get()) {
+                            events.success(event);
+                        }
+                    });
+                });
+                mainHandler.post(() -> {
+                    if (!cancelled.get()) {
+                        events.endOfStream();
+                    }
+                });
+            } catch (Exception e) {
+                Log.e("flutter_d2go", "Inferring video " + path + " failed", e);
+                mainHandler.post(() -> {
+                    if (!cancelled.get()) {
+                        events.error("predict video failed", "Inferring video " + path + " failed", e.getMessage());
+                    }
+                });
+            } finally {
+                videoEngine.release();
+            }
+        }, "flutter_d2go-video").start();
+    }
 
-        // Change the color of the mask image for each instance
-        Random rand = new Random();
-        final int r = rand.nextInt(255);
-        final int g = rand.nextInt(255);
-        final int b = rand.nextInt(255);
+    private void cancelVideo() {
+        if (videoCancelled != null) {
+            videoCancelled.set(true);
+            videoCancelled = null;
+        }
+    }
 
+    /**
+     * <p>Create the filter that selects the instances to be returned from the predict options</>
+     *
+     * @param classLabels Class names of the model the results are formatted with
+     * @param call minScore If this threshold is not met, it will not be included in the results.
+     *             allowedClasses Class names to be included in the results. null includes all classes.
+     *             maxDetections Maximum number of instances in descending order of score. 0 includes all instances.
+     *             nmsThreshold IoU above which lower score instances are suppressed across classes. null disables it.
+     * @return DetectionFilter applied before masks and keypoints are created
+     * @throws IllegalArgumentException If allowedClasses contains a class that is not in the classes file
+     */
+    private static DetectionFilter createDetectionFilter(ClassLabels classLabels, @NonNull MethodCall call) {
+        double minScore = call.argument("minScore");
+        List<String> allowedClasses = call.argument("allowedClasses");
+        int maxDetections = call.argument("maxDetections");
+        Double nmsThreshold = call.argument("nmsThreshold");
+        return createDetectionFilter(classLabels, minScore, allowedClasses, maxDetections, nmsThreshold == null ? Float.NaN : nmsThreshold.floatValue());
+    }
 
-        // The pixel of the bitmap image to be used is saved from bottom to top in the vertical direction.
-        // @see <a href="https://en.wikipedia.org/wiki/BMP_file_format#Pixel_array_(bitmap_data)">https://en.wikipedia.org/wiki/BMP_file_format#Pixel_array_(bitmap_data)</a>
-        int offset = 0;
-        for (int i = rawMask.length; i >= rawMaskWidth; i -= rawMaskWidth) {
-            int end = i - 1, start = i - rawMaskWidth;
-            for (int j = start; j <= end; j++) {
-                // Since the masks output of the d2go model assumes 28 * 28 raw data, the mask range is 0.5 or more.
-                // @see <a href="https://detectron2.readthedocs.io/en/latest/tutorials/deployment.html#use-the-model-in-c-python">https://detectron2.readthedocs.io/en/latest/tutorials/deployment.html#use-the-model-in-c-python</a>
-                final int a = rawMask[j] < 0.5 ? 0 : 128;
-                pixels[ch * offset] = (byte) (r & 0xff);
-                pixels[ch * offset + 1] = (byte) (g & 0xff);
-                pixels[ch * offset + 2] = (byte) (b & 0xff);
-                pixels[ch * offset + 3] = (byte) (a & 0xff);
-                offset += 1;
-            }
+    private static DetectionFilter createDetectionFilter(ClassLabels classLabels, double minScore, List<String> allowedClasses,
+                                                         int maxDetections, float nmsThreshold) {
+        return new DetectionFilter(minScore, classLabels.getAllowedLabels(allowedClasses), maxDetections, nmsThreshold);
+    }
+
+    /**
+     * <p>Formats the detections of one image into the list returned to Flutter</>
+     */
+    interface OutputsFormatter {
+        List<Map<String, Object>> format(Detections detections);
+    }
+
+    /**
+     * <p>Infer [inputTensor] and register the formatted result in result.success</>
+     *
+     * If batching is enabled, the tensor is queued in [batchPredictor] and the result is registered
+     * on the main thread once its batch has been inferred.
+     *
+     * @param inputTensor Tensor of the image to be inferred
+     * @param result Result to register the formatted inference result
+     * @param formatter Formats the detections of the image
+     */
+    private void runInference(InputTensor inputTensor, @NonNull MethodChannel.Result result, OutputsFormatter formatter) {
+        if (batchPredictor == null) {
+            result.success(formatter.format(engine.engine.forward(inputTensor)));
+            return;
         }
+        batchPredictor.submit(inputTensor, new BatchPredictor.Callback() {
+            @Override
+            public void onPrediction(Detections prediction) {
+                final List<Map<String, Object>> outputs = formatter.format(prediction);
+                mainHandler.post(() -> result.success(outputs));
+            }
 
-        // Concatenate pixels and bitmap headers
-        final byte[] bmpFileHeader = MaskBitmapHeader.getBMPFileHeader();
-        final byte[] bmpInfoHeader = MaskBitmapHeader.getBMPInfoHeader(rawMaskWidth, rawMaskWidth);
-        byte[] maskBytes = new byte[bmpFileHeader.length + bmpInfoHeader.length + pixels.length];
+            @Override
+            public void onError(Exception e) {
+                Log.e("flutter_d2go", "Batch inference failed", e);
+                mainHandler.post(() -> result.error("inference failed", e.getMessage(), null));
+            }
+        });
+    }
 
-        System.arraycopy(bmpFileHeader, 0, maskBytes, 0, bmpFileHeader.length);
-        System.arraycopy(bmpInfoHeader, 0, maskBytes, bmpFileHeader.length, bmpInfoHeader.length);
-        System.arraycopy(pixels, 0, maskBytes, bmpFileHeader.length + bmpInfoHeader.length, pixels.length);
+    /**
+     * <p>Create a tensor to input to the model from the bitmap data</>
+     *
+     * @param bitmap Bitmap formatted for inference
+     * @param meanDouble Average value used in Normalize
+     * @param stdDouble Standard deviation used in Normalize
+     * @param inputFormat Layout and dtype of the tensor
+     * @return InputTensor of [bitmap] in [inputFormat]
+     */
+    private InputTensor createInputTensor(Bitmap bitmap, ArrayList<Double> meanDouble, ArrayList<Double> stdDouble, InputTensorFormat inputFormat) {
+        // Convert [mean] and [std] to float
+        float[] mean = toFloatPrimitives(requireNonNull(meanDouble).toArray(new Double[0]));
+        float[] std = toFloatPrimitives(requireNonNull(stdDouble).toArray(new Double[0]));
 
-        return maskBytes;
+        // Create a tensor to input to the model with [inputWidth], [inputHeight] size and bitmap data
+        return inputFormat.createTensor(bitmap, mean, std);
     }
 
+    /**
+     * <p>Compare the input tensor formats end to end on the loaded model and return the timings to Flutter</>
+     *
+     * The benchmark runs on its own thread and calls the engine directly, so it should not be run
+     * while other predictions are in progress.
+     *
+     * @param call image, inputWidth, inputHeight, mean, std and minScore are the same as predictImage.
+     *             warmupIterations Number of untimed runs per format.
+     *             iterations Number of timed runs per format.
+     * @param result If successful, return the average timings of each format with result.success.
+     */
+    private void benchmarkInputFormats(@NonNull MethodCall call, @NonNull MethodChannel.Result result) {
+        if (!ensureModel(result)) {
+            return;
+        }
+        byte[] imageBytes = call.argument("image");
+        ArrayList<Double> meanDouble = call.argument("mean");
+        ArrayList<Double> stdDouble = call.argument("std");
+        double minScore = call.argument("minScore");
+        int inputWidth = call.argument("inputWidth");
+        int inputHeight = call.argument("inputHeight");
+        int warmupIterations = call.argument("warmupIterations");
+        int iterations = call.argument("iterations");
+
+        final float[] mean = toFloatPrimitives(requireNonNull(meanDouble).toArray(new Double[0]));
+        final float[] std = toFloatPrimitives(requireNonNull(stdDouble).toArray(new Double[0]));
+
+        // Create a bitmap object from image and fit the size to the model
+        final Bitmap bitmap = BitmapFactory.decodeByteArray(imageBytes, 0, requireNonNull(imageBytes).length);
+        final Bitmap resizedBitmap = Bitmap.createScaledBitmap(bitmap, inputWidth, inputHeight, true);
+        final PredictionFormatter formatter = predictionFormatter;
+        final DetectionFilter filter = new DetectionFilter(minScore, null, 0, Float.NaN);
+        final SharedInferenceEngine benchmarkEngine = engine.acquire();
+        final InputFormatBenchmark benchmark = new InputFormatBenchmark(benchmarkEngine.engine,
+                detections -> formatter.format(detections, filter, inputWidth, inputHeight, bitmap.getWidth(), bitmap.getHeight()));
+
+        new Thread(() -> {
+            try {
+                final Map<String, Object> report = benchmark.run(resizedBitmap, mean, std, warmupIterations, iterations);
+                mainHandler.post(() -> result.success(report));
+            } finally {
+                benchmarkEngine.release();
+            }
+        }, "flutter_d2go-benchmark").start();
+    }
 
     /**
-     * <p>Return 17 keypoints (x, y) for each instance as a list</>
+     * <p>Read a scalar argument of an EventChannel, checking its type</>
      *
-     * @param keypointsData is in a format with 17 * (x, y, score) for each instance
-     * @param instanceIndex Inferred instance number
-     * @param imageWidth Image width size to infer
-     * @param imageHeight Image height size to infer
-     * @return Returns a list of 17 keypoints (x, y)
+     * @param arguments Arguments of the listen
+     * @param key Name of the argument
+     * @param type Type of the argument
+     * @param required Whether the argument must not be null
+     * @return The argument, or null if it is null and not [required]
+     * @throws IllegalArgumentException If the argument is missing while [required] or is not of [type]
      */
-    @NonNull
-    private List<float[]> getKeypointsList(float[] keypointsData, int instanceIndex, int imageWidth, int imageHeight) {
-        // coco estimates have 17 keypoints
-        final int numOfKeypoints = 17;
-        final float[] keypointsPerInstance = Arrays.copyOfRange(keypointsData, instanceIndex * 3 * numOfKeypoints, (instanceIndex + 1) * 3 * numOfKeypoints);
-        List<float[]> keypointsList = new ArrayList<>();
-        for (int i = 0; i < keypointsPerInstance.length; i = 3 + i) {
-            // Since the d2go model output assumes that the input image size is 320 * 320, match the scale with the image to be inferred
-            final float x = keypointsPerInstance[i] * imageWidth / 320;
-            final float y = keypointsPerInstance[i+1] * imageHeight / 320;
-            final float[] keypoint = {x, y};
-            keypointsList.add(keypoint);
+    private static <T> T getArgument(Map<?, ?> arguments, String key, Class<T> type, boolean required) {
+        final Object value = arguments.get(key);
+        if (value == null) {
+            if (required) {
+                throw new IllegalArgumentException(key + " is required");
+            }
+            return null;
+        }
+        if (!type.isInstance(value)) {
+            throw new IllegalArgumentException(key + " must be " + type.getSimpleName());
         }
-        return keypointsList;
+        return type.cast(value);
     }
 
+    /**
+     * <p>Read a list argument of an EventChannel, checking the type of each element</>
+     *
+     * @param arguments Arguments of the listen
+     * @param key Name of the argument
+     * @param elementType Type of the elements
+     * @param required Whether the argument must not be null
+     * @return Copy of the list, or null if the argument is null and not [required]
+     * @throws IllegalArgumentException If the argument is missing while [required] or is not a list of [elementType]
+     */
+    private static <T> List<T> getListArgument(Map<?, ?> arguments, String key, Class<T> elementType, boolean required) {
+        final Object value = arguments.get(key);
+        if (value == null) {
+            if (required) {
+                throw new IllegalArgumentException(key + " is required");
+            }
+            return null;
+        }
+        if (!(value instanceof List)) {
+            throw new IllegalArgumentException(key + " must be a list");
+        }
+        final List<T> list = new ArrayList<>(((List<?>) value).size());
+        for (Object element : (List<?>) value) {
+            if (!elementType.isInstance(element)) {
+                throw new IllegalArgumentException(key + " must be a list of " + elementType.getSimpleName());
+            }
+            list.add(elementType.cast(element));
+        }
+        return list;
+    }
 
     /**
      * <p>Convert Normalize parameter to Float</>
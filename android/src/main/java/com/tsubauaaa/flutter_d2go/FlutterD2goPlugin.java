@@ -1,8 +1,11 @@
 package com.tsubauaaa.flutter_d2go;
 
+import android.content.Context;
+
 import androidx.annotation.NonNull;
 
 import io.flutter.embedding.engine.plugins.FlutterPlugin;
+import io.flutter.plugin.common.EventChannel;
 import io.flutter.plugin.common.MethodChannel;
 
 /**
@@ -13,22 +16,48 @@ import io.flutter.plugin.common.MethodChannel;
 public class FlutterD2goPlugin implements FlutterPlugin {
 
   private MethodChannel channel;
+  private EventChannel videoChannel;
+  private EventChannel streamChannel;
   private FlutterD2goHandler handler;
+  private MemoryBudget memoryBudget;
+  private Context applicationContext;
   private static final String CHANNEL_NAME = "tsubauaaa.com/flutter_d2go";
+  private static final String VIDEO_CHANNEL_NAME = "tsubauaaa.com/flutter_d2go/video";
+  private static final String STREAM_CHANNEL_NAME = "tsubauaaa.com/flutter_d2go/stream";
 
   @Override
   public void onAttachedToEngine(@NonNull FlutterPluginBinding flutterPluginBinding) {
-    final MethodChannel channel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(),
+    applicationContext = flutterPluginBinding.getApplicationContext();
+    channel = new MethodChannel(flutterPluginBinding.getBinaryMessenger(),
             CHANNEL_NAME);
-    handler = new FlutterD2goHandler(flutterPluginBinding.getApplicationContext());
+
+    // Release the model and caches of the handler when the system is low on memory
+    memoryBudget = new MemoryBudget();
+    applicationContext.registerComponentCallbacks(memoryBudget);
+
+    handler = new FlutterD2goHandler(applicationContext, memoryBudget);
     channel.setMethodCallHandler(handler);
+
+    videoChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), VIDEO_CHANNEL_NAME);
+    videoChannel.setStreamHandler(handler.videoStreamHandler);
+
+    streamChannel = new EventChannel(flutterPluginBinding.getBinaryMessenger(), STREAM_CHANNEL_NAME);
+    streamChannel.setStreamHandler(handler.streamSessionHandler);
   }
 
 
   @Override
   public void onDetachedFromEngine(@NonNull FlutterPluginBinding binding) {
     channel.setMethodCallHandler(null);
+    videoChannel.setStreamHandler(null);
+    streamChannel.setStreamHandler(null);
+    applicationContext.unregisterComponentCallbacks(memoryBudget);
+    handler.close();
     channel = null;
+    videoChannel = null;
+    streamChannel = null;
     handler = null;
+    memoryBudget = null;
+    applicationContext = null;
   }
 }
@@ -0,0 +1,196 @@
+package com.tsubauaaa.flutter_d2go;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>FrameRecorder</>
+ *
+ * Class that appends camera stream frames and their timing to a binary frame log, so that they can be
+ * fed through the inference again by FrameReplayer.
+ * Frames are serialized and written on a writer thread of the recorder, so recording adds no disk I/O to the
+ * predictions being recorded. If the writer falls MAX_PENDING_RECORDS frames behind, further frames are dropped.
+ *
+ * The log is little endian. It starts with the int MAGIC and the int VERSION. Each FrameRecorder opened on the log
+ * first appends a recording marker, which is an int recordSize of 0, and then one record per frame:
+ *   int recordSize (bytes after this field), long arrivalNanos (since the recorder was opened), long processingNanos,
+ *   int width, int height, int rotation, int inputWidth, int inputHeight,
+ *   int meanLength, float[] mean, int stdLength, float[] std, double minScore,
+ *   int allowedClassesCount (-1 for null), { int byteLength, UTF-8 bytes } per allowed class,
+ *   int maxDetections, float nmsThreshold, int inputFormatLength, UTF-8 bytes of inputFormat,
+ *   int planeCount, { int bytesPerPixel, int byteLength, bytes } per plane.
+ * Frames are recorded once their result is formatted, so the records of a recording are not always in arrival order.
+ */
+public class FrameRecorder implements Closeable {
+
+    static final int MAGIC = 0x46473244; // "D2GF"
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 8;
+    static final int MAX_PENDING_RECORDS = 16;
+
+    private final FileChannel channel;
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20).order(ByteOrder.LITTLE_ENDIAN);
+    // System.nanoTime() when the recording started, the origin of the arrival times
+    private final long startNanos;
+    private final ExecutorService writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_PENDING_RECORDS), r -> new Thread(r, "flutter_d2go-recorder"));
+    // The first failure of the writer thread, reported by the next record or close
+    private volatile IOException writeError;
+
+    /**
+     * <p>Open [file] and append to it, writing the header if it is a new log and the marker of a new recording</>
+     *
+     * @param file Frame log file
+     * @throws IOException If the file cannot be opened or written, or is a frame log of another version
+     */
+    public FrameRecorder(File file) throws IOException {
+        if (file.length() > 0) {
+            checkHeader(file);
+        }
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (channel.size() == 0) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(MAGIC).putInt(VERSION).flip();
+            writeFully(header);
+        }
+        // The arrival times of this recording start again from 0
+        startNanos = System.nanoTime();
+        ByteBuffer marker = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+        marker.putInt(0).flip();
+        writeFully(marker);
+    }
+
+    /**
+     * <p>Queue a frame to be appended to the log by the writer thread</>
+     *
+     * @param frame Frame that was inferred. Its planes must not be modified afterwards.
+     * @param arrivalNanos System.nanoTime() when the frame arrived, after this recorder was opened
+     * @param processingNanos Time taken from the arrival to the formatted result
+     * @throws IOException If a previous frame could not be written, or this frame is dropped because the writer is behind
+     */
+    public void record(StreamFrame frame, long arrivalNanos, long processingNanos) throws IOException {
+        final IOException error = writeError;
+        if (error != null) {
+            throw error;
+        }
+        try {
+            writer.execute(() -> {
+                try {
+                    write(frame, arrivalNanos, processingNanos);
+                } catch (IOException e) {
+                    if (writeError == null) {
+                        writeError = e;
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            throw new IOException("Frame was dropped, the frame log writer is closed or " + MAX_PENDING_RECORDS + " frames behind", e);
+        }
+    }
+
+    private void write(StreamFrame frame, long arrivalNanos, long processingNanos) throws IOException {
+        final byte[] inputFormat = frame.inputFormat == null ? new byte[0] : frame.inputFormat.getBytes(StandardCharsets.UTF_8);
+        final byte[][] allowedClasses = new byte[frame.allowedClasses == null ? 0 : frame.allowedClasses.size()][];
+        int recordSize = 8 + 8 + 5 * 4 + 4 + 4 * frame.mean.length + 4 + 4 * frame.std.length + 8 + 4 + 4 + 4 + 4 + inputFormat.length + 4;
+        for (int i = 0; i < allowedClasses.length; i++) {
+            allowedClasses[i] = frame.allowedClasses.get(i).getBytes(StandardCharsets.UTF_8);
+            recordSize += 4 + allowedClasses[i].length;
+        }
+        for (byte[] plane : frame.imageBytesList) {
+            recordSize += 4 + 4 + plane.length;
+        }
+
+        ensureCapacity(4 + recordSize);
+        buffer.clear();
+        buffer.putInt(recordSize);
+        buffer.putLong(arrivalNanos - startNanos);
+        buffer.putLong(processingNanos);
+        buffer.putInt(frame.width).putInt(frame.height).putInt(frame.rotation);
+        buffer.putInt(frame.inputWidth).putInt(frame.inputHeight);
+        buffer.putInt(frame.mean.length);
+        for (float value : frame.mean) {
+            buffer.putFloat(value);
+        }
+        buffer.putInt(frame.std.length);
+        for (float value : frame.std) {
+            buffer.putFloat(value);
+        }
+        buffer.putDouble(frame.minScore);
+        buffer.putInt(frame.allowedClasses == null ? -1 : allowedClasses.length);
+        for (byte[] allowedClass : allowedClasses) {
+            buffer.putInt(allowedClass.length).put(allowedClass);
+        }
+        buffer.putInt(frame.maxDetections);
+        buffer.putFloat(frame.nmsThreshold);
+        buffer.putInt(inputFormat.length).put(inputFormat);
+        buffer.putInt(frame.imageBytesList.size());
+        for (int i = 0; i < frame.imageBytesList.size(); i++) {
+            final byte[] plane = frame.imageBytesList.get(i);
+            buffer.putInt(frame.imageBytesPerPixel.get(i)).putInt(plane.length).put(plane);
+        }
+        buffer.flip();
+        writeFully(buffer);
+    }
+
+    /**
+     * <p>Wait until the queued frames are written and close the log</>
+     *
+     * @throws IOException If a frame could not be written or the log cannot be closed
+     */
+    @Override
+    public void close() throws IOException {
+        writer.shutdown();
+        boolean interrupted = false;
+        while (!writer.isTerminated()) {
+            try {
+                writer.awaitTermination(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+        if (writeError != null) {
+            throw writeError;
+        }
+    }
+
+    /**
+     * <p>Make sure that [file] is a frame log of this version, since appending to another version would make it unreadable</>
+     */
+    private static void checkHeader(File file) throws IOException {
+        try (FileChannel reader = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            reader.read(header);
+            header.flip();
+            if (header.remaining() < HEADER_SIZE || header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException(file + " is not a frame log of version " + VERSION);
+            }
+        }
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.capacity() < size) {
+            buffer = ByteBuffer.allocateDirect(Integer.highestOneBit(size) << 1).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.tsubauaaa.flutter_d2go;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>FrameReplayDriver</>
+ *
+ * Class that feeds the frames of a frame log through preprocessing, InferenceEngine, DetectionFilter and
+ * PredictionFormatter and measures the throughput.
+ * Only the preprocessing depends on the platform, so the same replay runs with RenderScript and a
+ * PyTorchInferenceEngine on a device and with a Java preprocessor and a fake engine on a plain JVM.
+ */
+public class FrameReplayDriver {
+
+    /**
+     * <p>Converts a camera stream frame to the tensor to input to the model</>
+     */
+    public interface Preprocessor {
+        /**
+         * @param frame Frame read from the log
+         * @return InputTensor in the input format of [frame], whose width and height are the rotated input size
+         * @throws Exception Stops the replay
+         */
+        InputTensor prepare(StreamFrame frame) throws Exception;
+    }
+
+    private final InferenceEngine engine;
+    private final PredictionFormatter formatter;
+    private final Preprocessor preprocessor;
+
+    /**
+     * @param engine Engine that infers the frames. It must not be used by other predictions during the replay.
+     * @param formatter Formatter with the class labels of the model of [engine]
+     * @param preprocessor Converts each frame to the tensor to input to [engine]
+     */
+    public FrameReplayDriver(InferenceEngine engine, PredictionFormatter formatter, Preprocessor preprocessor) {
+        this.engine = engine;
+        this.formatter = formatter;
+        this.preprocessor = preprocessor;
+    }
+
+    /**
+     * <p>Replay all frames of [replayer] on the calling thread</>
+     *
+     * @param replayer Opened frame log
+     * @param realtime If true, frames are fed at their recorded arrival times, otherwise as fast as possible.
+     * @return { "frames": int, "elapsedMillis": double, "framesPerSecond": double,
+     *           "averageProcessingMillis": double, "recordedAverageProcessingMillis": double }
+     * @throws Exception If the log is broken or a frame cannot be preprocessed or inferred
+     */
+    public Map<String, Object> run(FrameReplayer replayer, boolean realtime) throws Exception {
+        final long[] processingNanos = new long[2];
+        final long start = System.nanoTime();
+        final int frames = replayer.replay((frame, recordedProcessingNanos) -> {
+            final long frameStart = System.nanoTime();
+            final DetectionFilter filter = new DetectionFilter(frame.minScore,
+                    formatter.getClassLabels().getAllowedLabels(frame.allowedClasses), frame.maxDetections, frame.nmsThreshold);
+            final InputTensor inputTensor = preprocessor.prepare(frame);
+            // The camera streaming image is tilted 90 degrees, so the vertical and horizontal directions are reversed
+            formatter.format(engine.forward(inputTensor), filter, inputTensor.getWidth(), inputTensor.getHeight(), frame.height, frame.width);
+            processingNanos[0] += System.nanoTime() - frameStart;
+            processingNanos[1] += recordedProcessingNanos;
+        }, realtime);
+        final double elapsedMillis = (System.nanoTime() - start) / 1e6;
+
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("frames", frames);
+        report.put("elapsedMillis", elapsedMillis);
+        report.put("framesPerSecond", elapsedMillis > 0 ? frames * 1000 / elapsedMillis : 0.0);
+        report.put("averageProcessingMillis", frames > 0 ? processingNanos[0] / 1e6 / frames : 0.0);
+        report.put("recordedAverageProcessingMillis", frames > 0 ? processingNanos[1] / 1e6 / frames : 0.0);
+        return report;
+    }
+}
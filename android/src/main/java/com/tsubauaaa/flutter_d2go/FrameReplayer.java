@@ -0,0 +1,201 @@
+package com.tsubauaaa.flutter_d2go;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>FrameReplayer</>
+ *
+ * Class that memory-maps a frame log written by FrameRecorder and feeds the frames back in order,
+ * either at the recorded arrival times or as fast as the listener consumes them.
+ * The log is mapped in windows of WINDOW_SIZE bytes, or of one record if it is larger, so logs of any size
+ * can be replayed. It only uses java.nio, so the log can also be replayed on a plain JVM.
+ */
+public class FrameReplayer implements Closeable {
+
+    /**
+     * <p>Receives each frame read from the log</>
+     */
+    public interface Listener {
+        /**
+         * @param frame Frame read from the log
+         * @param recordedProcessingNanos Processing time of the frame when it was recorded
+         * @throws Exception Stops the replay
+         */
+        void onFrame(StreamFrame frame, long recordedProcessingNanos) throws Exception;
+    }
+
+    static final long WINDOW_SIZE = 64L << 20;
+
+    private final FileChannel channel;
+    private final long size;
+    private final long windowSize;
+    // The mapped part of the log, starting at [windowStart]
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    /**
+     * <p>Open [file] and check its header</>
+     *
+     * @param file Frame log written by FrameRecorder
+     * @throws IOException If the file cannot be opened or is not a frame log
+     */
+    public FrameReplayer(File file) throws IOException {
+        this(file, WINDOW_SIZE);
+    }
+
+    /**
+     * @param file Frame log written by FrameRecorder
+     * @param windowSize Maximum number of bytes mapped at a time, unless a record is larger
+     * @throws IOException If the file cannot be opened or is not a frame log
+     */
+    FrameReplayer(File file, long windowSize) throws IOException {
+        this.windowSize = windowSize;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        size = channel.size();
+        if (size < FrameRecorder.HEADER_SIZE) {
+            channel.close();
+            throw new IOException(file + " is not a frame log");
+        }
+        final ByteBuffer header = map(0, FrameRecorder.HEADER_SIZE);
+        if (header.getInt() != FrameRecorder.MAGIC) {
+            channel.close();
+            throw new IOException(file + " is not a frame log");
+        }
+        final int version = header.getInt();
+        if (version != FrameRecorder.VERSION) {
+            channel.close();
+            throw new IOException("Unsupported frame log version " + version);
+        }
+    }
+
+    /**
+     * <p>Feed all frames of the log to [listener] on the calling thread</>
+     *
+     * @param listener Receives each frame
+     * @param realtime If true, each frame is fed at its recorded arrival time. If false, frames are fed back to back.
+     * @return Number of frames fed
+     * @throws Exception If the log is broken or the listener throws
+     */
+    public int replay(Listener listener, boolean realtime) throws Exception {
+        long position = FrameRecorder.HEADER_SIZE;
+        long startNanos = System.nanoTime();
+        boolean newRecording = true;
+        int frames = 0;
+        while (size - position >= 4) {
+            final int recordSize = map(position, 4).getInt();
+            position += 4;
+            if (recordSize == 0) {
+                // The marker of a recording appended to the log, whose arrival times start again from 0
+                newRecording = true;
+                continue;
+            }
+            if (recordSize < 0 || recordSize > size - position) {
+                throw new IOException("Frame log is truncated at frame " + frames);
+            }
+            final ByteBuffer record = map(position, recordSize);
+            final long arrivalNanos = record.getLong();
+            final long processingNanos = record.getLong();
+            final StreamFrame frame = readFrame(record);
+            position += recordSize;
+
+            if (realtime) {
+                if (newRecording) {
+                    startNanos = System.nanoTime() - arrivalNanos;
+                    newRecording = false;
+                }
+                // A frame recorded after a later arrival is fed right away
+                final long waitNanos = startNanos + arrivalNanos - System.nanoTime();
+                if (waitNanos > 0) {
+                    TimeUnit.NANOSECONDS.sleep(waitNanos);
+                }
+            }
+            listener.onFrame(frame, processingNanos);
+            frames++;
+        }
+        return frames;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * <p>Map the window of the log holding [length] bytes from [position], unless the current window holds them</>
+     *
+     * @return The window with its position at [position] and its limit at [position] + [length]
+     */
+    private ByteBuffer map(long position, int length) throws IOException {
+        if (window == null || position < windowStart || position + length > windowStart + window.capacity()) {
+            windowStart = position;
+            window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(size - position, Math.max(windowSize, length)));
+            window.order(ByteOrder.LITTLE_ENDIAN);
+        }
+        final int offset = (int) (position - windowStart);
+        window.clear();
+        window.position(offset);
+        window.limit(offset + length);
+        return window;
+    }
+
+    private static StreamFrame readFrame(ByteBuffer buffer) {
+        final int width = buffer.getInt();
+        final int height = buffer.getInt();
+        final int rotation = buffer.getInt();
+        final int inputWidth = buffer.getInt();
+        final int inputHeight = buffer.getInt();
+        final float[] mean = readFloats(buffer);
+        final float[] std = readFloats(buffer);
+        final double minScore = buffer.getDouble();
+
+        final int allowedClassesCount = buffer.getInt();
+        List<String> allowedClasses = null;
+        if (allowedClassesCount >= 0) {
+            allowedClasses = new ArrayList<>(allowedClassesCount);
+            for (int i = 0; i < allowedClassesCount; i++) {
+                allowedClasses.add(readString(buffer));
+            }
+        }
+        final int maxDetections = buffer.getInt();
+        final float nmsThreshold = buffer.getFloat();
+        final String inputFormatName = readString(buffer);
+        final String inputFormat = inputFormatName.isEmpty() ? null : inputFormatName;
+
+        final int planeCount = buffer.getInt();
+        List<byte[]> imageBytesList = new ArrayList<>(planeCount);
+        List<Integer> imageBytesPerPixel = new ArrayList<>(planeCount);
+        for (int i = 0; i < planeCount; i++) {
+            imageBytesPerPixel.add(buffer.getInt());
+            final byte[] plane = new byte[buffer.getInt()];
+            buffer.get(plane);
+            imageBytesList.add(plane);
+        }
+        return new StreamFrame(imageBytesList, imageBytesPerPixel, width, height, rotation, inputWidth, inputHeight,
+                mean, std, minScore, allowedClasses, maxDetections, nmsThreshold, inputFormat);
+    }
+
+    private static float[] readFloats(ByteBuffer buffer) {
+        final float[] values = new float[buffer.getInt()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = buffer.getFloat();
+        }
+        return values;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,50 @@
+package com.tsubauaaa.flutter_d2go;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * <p>InferenceEngine</>
+ *
+ * Backend that runs the detection model. FlutterD2goHandler, BatchPredictor, FrameReplayDriver and
+ * InputFormatBenchmark only talk to the model through this interface, so the batching, replay, filtering and
+ * formatting run on PyTorchInferenceEngine on a device and on the FakeInferenceEngine of the unit tests on a plain JVM.
+ * The scheduling of FlutterD2goHandler itself posts to the main Looper and only runs on a device.
+ */
+public interface InferenceEngine {
+
+    /**
+     * <p>Creates an InferenceEngine from a model file</>
+     */
+    interface Loader {
+        /**
+         * @param modelPath The path of the model under Application directory.
+         * @return InferenceEngine that runs the model
+         * @throws Exception If the file is not a proper model
+         */
+        InferenceEngine load(String modelPath) throws Exception;
+    }
+
+    /**
+     * <p>Infer a list of images in one call</>
+     *
+     * @param inputs Images to be inferred
+     * @return The raw detections in the same order as [inputs]
+     */
+    List<Detections> forward(List<InputTensor> inputs);
+
+    /**
+     * <p>Infer a single image</>
+     *
+     * @param input Image to be inferred
+     * @return The raw detections of [input]
+     */
+    default Detections forward(InputTensor input) {
+        return forward(Collections.singletonList(input)).get(0);
+    }
+
+    /**
+     * <p>Free the model. The engine must not be used afterwards</>
+     */
+    void close();
+}
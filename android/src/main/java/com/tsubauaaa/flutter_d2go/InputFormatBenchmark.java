@@ -0,0 +1,94 @@
+package com.tsubauaaa.flutter_d2go;
+
+import android.graphics.Bitmap;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.flutter.Log;
+
+/**
+ * <p>InputFormatBenchmark</>
+ *
+ * Class that compares the input tensor formats end to end on the InferenceEngine of the loaded model.
+ * For each format, the tensor fill, the forward call and the formatting of the result are timed separately.
+ * The pixels, the normalization table and the tensor of each format are prepared once before the timed runs, as a
+ * stream session does, so the fill time is only the conversion of the pixels to the layout of the format.
+ */
+public class InputFormatBenchmark {
+
+    private final InferenceEngine engine;
+    private final FlutterD2goHandler.OutputsFormatter formatter;
+
+    /**
+     * @param engine InferenceEngine of the loaded model.
+     * @param formatter Formats the detections in the same way as the predictions.
+     */
+    public InputFormatBenchmark(InferenceEngine engine, FlutterD2goHandler.OutputsFormatter formatter) {
+        this.engine = engine;
+        this.formatter = formatter;
+    }
+
+    /**
+     * <p>Run all formats on [bitmap] and return the average time of each step</>
+     *
+     * @param bitmap Bitmap formatted for inference
+     * @param mean Average value used in Normalize
+     * @param std Standard deviation used in Normalize
+     * @param warmupIterations Number of untimed runs per format before measuring
+     * @param iterations Number of timed runs per format
+     * @return Map of the format name to { "fillMicros": double, "forwardMicros": double, "formatMicros": double,
+     *         "totalMicros": double, "instances": int }, or { "error": String } if the model does not accept the format.
+     */
+    public Map<String, Object> run(Bitmap bitmap, float[] mean, float[] std, int warmupIterations, int iterations) {
+        Map<String, Object> report = new LinkedHashMap<>();
+        final int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        final float[] normalizationTable = InputTensorFormat.createNormalizationTable(mean, std);
+        for (InputTensorFormat format : InputTensorFormat.values()) {
+            try {
+                final InputTensor inputTensor = format.allocateTensor(bitmap.getWidth(), bitmap.getHeight());
+                for (int i = 0; i < warmupIterations; i++) {
+                    format.fillTensor(pixels, normalizationTable, inputTensor);
+                    formatter.format(engine.forward(inputTensor));
+                }
+
+                long fillNanos = 0, forwardNanos = 0, formatNanos = 0;
+                int instances = 0;
+                for (int i = 0; i < iterations; i++) {
+                    final long start = System.nanoTime();
+                    format.fillTensor(pixels, normalizationTable, inputTensor);
+                    final long filled = System.nanoTime();
+                    final Detections detections = engine.forward(inputTensor);
+                    final long forwarded = System.nanoTime();
+                    final List<Map<String, Object>> outputs = formatter.format(detections);
+                    final long formatted = System.nanoTime();
+
+                    fillNanos += filled - start;
+                    forwardNanos += forwarded - filled;
+                    formatNanos += formatted - forwarded;
+                    instances = outputs.size();
+                }
+
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("fillMicros", averageMicros(fillNanos, iterations));
+                result.put("forwardMicros", averageMicros(forwardNanos, iterations));
+                result.put("formatMicros", averageMicros(formatNanos, iterations));
+                result.put("totalMicros", averageMicros(fillNanos + forwardNanos + formatNanos, iterations));
+                result.put("instances", instances);
+                report.put(format.getFormatName(), result);
+            } catch (Exception e) {
+                Log.e("flutter_d2go", "Benchmark of " + format.getFormatName() + " failed", e);
+                Map<String, Object> result = new LinkedHashMap<>();
+                result.put("error", String.valueOf(e.getMessage()));
+                report.put(format.getFormatName(), result);
+            }
+        }
+        return report;
+    }
+
+    private static double averageMicros(long totalNanos, int iterations) {
+        return iterations > 0 ? totalNanos / 1000.0 / iterations : 0.0;
+    }
+}
@@ -0,0 +1,80 @@
+package com.tsubauaaa.flutter_d2go;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * <p>InputTensor</>
+ *
+ * Image data input to an InferenceEngine, independent of the backend.
+ * It holds either normalized float32 data or raw uint8 data in a direct buffer of the native byte order,
+ * so that PyTorchInferenceEngine can wrap it in a tensor without copying.
+ */
+public class InputTensor {
+
+    /** Normalized float32 data, or null for uint8 data */
+    public final FloatBuffer floatData;
+    /** Raw uint8 data, or null for float32 data */
+    public final ByteBuffer uint8Data;
+    /** Shape of the data. The last two dimensions are the height and the width. */
+    public final long[] shape;
+    /** Whether [floatData] is in channels-last memory format */
+    public final boolean channelsLast;
+
+    private InputTensor(FloatBuffer floatData, ByteBuffer uint8Data, long[] shape, boolean channelsLast) {
+        this.floatData = floatData;
+        this.uint8Data = uint8Data;
+        this.shape = shape;
+        this.channelsLast = channelsLast;
+    }
+
+    /**
+     * @param data Buffer allocated by allocateFloatBuffer
+     * @param shape Shape of [data]
+     * @param channelsLast Whether [data] is in channels-last memory format
+     * @return InputTensor of float32 data
+     */
+    public static InputTensor fromFloats(FloatBuffer data, long[] shape, boolean channelsLast) {
+        return new InputTensor(data, null, shape, channelsLast);
+    }
+
+    /**
+     * @param data Buffer allocated by allocateByteBuffer
+     * @param shape Shape of [data]
+     * @return InputTensor of uint8 data
+     */
+    public static InputTensor fromUint8(ByteBuffer data, long[] shape) {
+        return new InputTensor(null, data, shape, false);
+    }
+
+    /**
+     * @param numElements Number of float values
+     * @return Direct buffer of the native byte order
+     */
+    public static FloatBuffer allocateFloatBuffer(int numElements) {
+        return ByteBuffer.allocateDirect(numElements * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+    /**
+     * @param numElements Number of bytes
+     * @return Direct buffer of the native byte order
+     */
+    public static ByteBuffer allocateByteBuffer(int numElements) {
+        return ByteBuffer.allocateDirect(numElements).order(ByteOrder.nativeOrder());
+    }
+
+    /**
+     * @return Width size of the image
+     */
+    public int getWidth() {
+        return (int) shape[shape.length - 1];
+    }
+
+    /**
+     * @return Height size of the image
+     */
+    public int getHeight() {
+        return (int) shape[shape.length - 2];
+    }
+}
@@ -0,0 +1,165 @@
+package com.tsubauaaa.flutter_d2go;
+
+import android.graphics.Bitmap;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+
+/**
+ * <p>InputTensorFormat</>
+ *
+ * Layout and dtype of the tensor input to the D2Go model.
+ *
+ * `float32` is the normalized torch.float32 tensor of shape (3, height, width) that the exported D2Go models expect.
+ * `float32ChannelsLast` is the same normalized data of shape (1, 3, height, width) in channels-last memory format,
+ * and `uint8` is the raw RGB bytes of shape (3, height, width) for models exported with in-graph normalization.
+ * Both of them need a model exported to accept that input.
+ */
+public enum InputTensorFormat {
+    FLOAT32("float32") {
+        @Override
+        InputTensor allocateTensor(int width, int height) {
+            return InputTensor.fromFloats(InputTensor.allocateFloatBuffer(3 * width * height), new long[] {3, height, width}, false);
+        }
+
+        @Override
+        void fillTensor(int[] pixels, float[] normalizationTable, InputTensor tensor) {
+            final FloatBuffer floatBuffer = tensor.floatData;
+
+            // Write the R, G and B planes one after another
+            final int planeSize = pixels.length;
+            for (int i = 0; i < planeSize; i++) {
+                final int pixel = pixels[i];
+                floatBuffer.put(i, normalizationTable[(pixel >> 16) & 0xff]);
+                floatBuffer.put(planeSize + i, normalizationTable[256 + ((pixel >> 8) & 0xff)]);
+                floatBuffer.put(2 * planeSize + i, normalizationTable[512 + (pixel & 0xff)]);
+            }
+        }
+    },
+    FLOAT32_CHANNELS_LAST("float32ChannelsLast") {
+        @Override
+        InputTensor allocateTensor(int width, int height) {
+            return InputTensor.fromFloats(InputTensor.allocateFloatBuffer(3 * width * height), new long[] {1, 3, height, width}, true);
+        }
+
+        @Override
+        void fillTensor(int[] pixels, float[] normalizationTable, InputTensor tensor) {
+            final FloatBuffer floatBuffer = tensor.floatData;
+
+            // Write R, G and B of each pixel next to each other
+            for (int i = 0; i < pixels.length; i++) {
+                final int pixel = pixels[i];
+                floatBuffer.put(3 * i, normalizationTable[(pixel >> 16) & 0xff]);
+                floatBuffer.put(3 * i + 1, normalizationTable[256 + ((pixel >> 8) & 0xff)]);
+                floatBuffer.put(3 * i + 2, normalizationTable[512 + (pixel & 0xff)]);
+            }
+        }
+    },
+    UINT8("uint8") {
+        @Override
+        InputTensor allocateTensor(int width, int height) {
+            return InputTensor.fromUint8(InputTensor.allocateByteBuffer(3 * width * height), new long[] {3, height, width});
+        }
+
+        @Override
+        void fillTensor(int[] pixels, float[] normalizationTable, InputTensor tensor) {
+            final ByteBuffer byteBuffer = tensor.uint8Data;
+
+            // Write the R, G and B planes as they are, the model normalizes them in its graph
+            final int planeSize = pixels.length;
+            for (int i = 0; i < planeSize; i++) {
+                final int pixel = pixels[i];
+                byteBuffer.put(i, (byte) (pixel >> 16));
+                byteBuffer.put(planeSize + i, (byte) (pixel >> 8));
+                byteBuffer.put(2 * planeSize + i, (byte) pixel);
+            }
+        }
+    };
+
+    private final String formatName;
+
+    InputTensorFormat(String formatName) {
+        this.formatName = formatName;
+    }
+
+    /**
+     * <p>Create the tensor to input to the model from the bitmap data</>
+     *
+     * @param bitmap Bitmap formatted for inference
+     * @param mean Average value used in Normalize. Not used by `uint8`.
+     * @param std Standard deviation used in Normalize. Not used by `uint8`.
+     * @return InputTensor in this format
+     */
+    InputTensor createTensor(Bitmap bitmap, float[] mean, float[] std) {
+        final InputTensor tensor = allocateTensor(bitmap.getWidth(), bitmap.getHeight());
+        fillTensor(getPixels(bitmap), createNormalizationTable(mean, std), tensor);
+        return tensor;
+    }
+
+    /**
+     * <p>Allocate a tensor in this format that can be filled again for each image of the same size</>
+     *
+     * @param width Width size of the image
+     * @param height Height size of the image
+     * @return InputTensor in this format
+     */
+    abstract InputTensor allocateTensor(int width, int height);
+
+    /**
+     * <p>Write the pixels of an image to [tensor]</>
+     *
+     * @param pixels ARGB pixels of the image in row order
+     * @param normalizationTable Table created by createNormalizationTable. Not used by `uint8`.
+     * @param tensor Tensor allocated by allocateTensor for the size of the image
+     */
+    abstract void fillTensor(int[] pixels, float[] normalizationTable, InputTensor tensor);
+
+    /**
+     * <p>Precompute the normalized value of every 8 bit value of each channel</>
+     *
+     * @param mean Average value used in Normalize
+     * @param std Standard deviation used in Normalize
+     * @return Table of (value / 255 - mean) / std indexed by channel * 256 + value
+     */
+    static float[] createNormalizationTable(float[] mean, float[] std) {
+        final float[] table = new float[3 * 256];
+        for (int c = 0; c < 3; c++) {
+            for (int v = 0; v < 256; v++) {
+                table[c * 256 + v] = (v / 255.0f - mean[c]) / std[c];
+            }
+        }
+        return table;
+    }
+
+    /**
+     * @return Name of this format used by Flutter
+     */
+    public String getFormatName() {
+        return formatName;
+    }
+
+    /**
+     * <p>Get the format from the name used by Flutter</>
+     *
+     * @param formatName `float32`, `float32ChannelsLast` or `uint8`. null is `float32`.
+     * @return InputTensorFormat of [formatName]
+     * @throws IllegalArgumentException If [formatName] is not a known format
+     */
+    public static InputTensorFormat fromFormatName(String formatName) {
+        if (formatName == null) {
+            return FLOAT32;
+        }
+        for (InputTensorFormat format : values()) {
+            if (format.formatName.equals(formatName)) {
+                return format;
+            }
+        }
+        throw new IllegalArgumentException(formatName + " is not a supported input format");
+    }
+
+    private static int[] getPixels(Bitmap bitmap) {
+        final int[] pixels = new int[bitmap.getWidth() * bitmap.getHeight()];
+        bitmap.getPixels(pixels, 0, bitmap.getWidth(), 0, 0, bitmap.getWidth(), bitmap.getHeight());
+        return pixels;
+    }
+}
@@ -0,0 +1,145 @@
+package com.tsubauaaa.flutter_d2go;
+
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import androidx.annotation.NonNull;
+import io.flutter.Log;
+
+/**
+ * <p>MemoryBudget</>
+ *
+ * Class that tracks the memory held by the loaded model, pools and caches of the plugin and releases it
+ * in priority order when the system asks the application to trim its memory.
+ * Caches are released first, then pools, and the model only once the application is in the background.
+ */
+public class MemoryBudget implements ComponentCallbacks2 {
+
+    /** Recreated on demand at no more than a small cost, released first */
+    public static final int PRIORITY_CACHE = 0;
+    /** Reused buffers, released when memory is getting low */
+    public static final int PRIORITY_POOL = 1;
+    /** The loaded model, released only when the application is in the background */
+    public static final int PRIORITY_MODEL = 2;
+
+    /**
+     * <p>Memory held by a part of the plugin</>
+     */
+    public interface Consumer {
+        /**
+         * @return Approximate number of bytes currently held
+         */
+        long getRetainedBytes();
+
+        /**
+         * <p>Shrink or release the held memory</>
+         *
+         * @param level TRIM_MEMORY_* level of ComponentCallbacks2
+         */
+        void trimMemory(int level);
+    }
+
+    private static class Entry {
+        final String name;
+        final int priority;
+        final Consumer consumer;
+
+        Entry(String name, int priority, Consumer consumer) {
+            this.name = name;
+            this.priority = priority;
+            this.consumer = consumer;
+        }
+    }
+
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * <p>Start tracking [consumer]</>
+     *
+     * @param name Name used in the log
+     * @param priority PRIORITY_CACHE, PRIORITY_POOL or PRIORITY_MODEL
+     * @param consumer Memory to track
+     */
+    public synchronized void register(String name, int priority, Consumer consumer) {
+        // Keep [entries] in the order of release
+        int index = 0;
+        while (index < entries.size() && entries.get(index).priority <= priority) {
+            index++;
+        }
+        entries.add(index, new Entry(name, priority, consumer));
+    }
+
+    /**
+     * <p>Stop tracking [consumer]</>
+     */
+    public synchronized void unregister(Consumer consumer) {
+        for (int i = entries.size() - 1; i >= 0; i--) {
+            if (entries.get(i).consumer == consumer) {
+                entries.remove(i);
+            }
+        }
+    }
+
+    /**
+     * <p>Release the memory of all tracked consumers</>
+     */
+    public void releaseAll() {
+        trim(TRIM_MEMORY_COMPLETE, PRIORITY_MODEL);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        trim(level, getMaxPriorityToRelease(level));
+    }
+
+    @Override
+    public void onLowMemory() {
+        onTrimMemory(TRIM_MEMORY_COMPLETE);
+    }
+
+    @Override
+    public void onConfigurationChanged(@NonNull Configuration newConfig) {
+    }
+
+    /**
+     * <p>Decide up to which priority is released for the TRIM_MEMORY_* [level]</>
+     *
+     * @return PRIORITY_* to release up to, or -1 to release nothing
+     */
+    private static int getMaxPriorityToRelease(int level) {
+        if (level >= TRIM_MEMORY_BACKGROUND) {
+            // The application is in the LRU list and may be killed, reload the model when it comes back
+            return PRIORITY_MODEL;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_LOW) {
+            // RUNNING_LOW, RUNNING_CRITICAL and UI_HIDDEN
+            return PRIORITY_POOL;
+        }
+        if (level >= TRIM_MEMORY_RUNNING_MODERATE) {
+            return PRIORITY_CACHE;
+        }
+        return -1;
+    }
+
+    private synchronized void trim(int level, int maxPriority) {
+        long releasedBytes = 0;
+        for (Entry entry : entries) {
+            if (entry.priority > maxPriority) {
+                break;
+            }
+            final long before = entry.consumer.getRetainedBytes();
+            entry.consumer.trimMemory(level);
+            final long released = before - entry.consumer.getRetainedBytes();
+            if (released > 0) {
+                Log.d("flutter_d2go", "Released " + released + " bytes of " + entry.name);
+            }
+            releasedBytes += released;
+        }
+        if (releasedBytes > 0) {
+            Log.i("flutter_d2go", "Trim memory level " + level + " released " + releasedBytes + " bytes");
+        }
+    }
+}
@@ -0,0 +1,190 @@
+package com.tsubauaaa.flutter_d2go;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import androidx.annotation.NonNull;
+
+/**
+ * <p>PredictionFormatter</>
+ *
+ * Class that formats the raw detections of one image into the list returned to Flutter.
+ * It does not depend on the InferenceEngine, so the decoding can also be run on a plain JVM.
+ * A formatter is created for each loaded model and keeps the class names of that model.
+ */
+public class PredictionFormatter {
+
+    private final ClassLabels classLabels;
+
+    /**
+     * @param classLabels Class names of the loaded model
+     */
+    public PredictionFormatter(ClassLabels classLabels) {
+        this.classLabels = classLabels;
+    }
+
+    /**
+     * @return Class names of the model this formatter was created for
+     */
+    public ClassLabels getClassLabels() {
+        return classLabels;
+    }
+
+    /**
+     * <p>Format the raw detections of one image and return them</>
+     *
+     * @param detections Raw detections of one image returned by the InferenceEngine
+     * @param filter Selects the instances to be included in the results
+     * @param inputWidth The width of the bitmap input to the model
+     * @param inputHeight The height of the bitmap input to the model
+     * @param width The size of the width of the image to be inferred
+     * @param height The size of the height of the image to be inferred
+     * @return A formatted version of the inference result
+     *         The format is List of { "rect": { "left": Float, "top": Float, "right": Float, "bottom": Float },
+     *                                 "mask": [byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte, byte ...],
+     *                                 "keypoints": [[Float, Float], [Float, Float], [Float, Float], [Float, Float], ...],
+     *                                 "confidenceInClass": Float, "detectedClass": String }. "mask" and "keypoints" do not exist on some models.
+     */
+    public List<Map<String, Object>> format(Detections detections, DetectionFilter filter, int inputWidth, int inputHeight, int width, int height) {
+
+        List<Map<String, Object>> outputs = new ArrayList<>();
+
+        // Formatting inference results
+        final boolean hasMasks = detections.hasMasks();
+        final boolean hasKeypoints = detections.hasKeypoints();
+
+        // [boxesData] has 4 sets of left, top, right and bottom per instance
+        // boxesData = [left1, top1, right1, bottom1, left2, top2, right2, bottom2, left3, top3, ..., bottomN]
+        final float[] boxesData = detections.getBoxes();
+        final float[] scoresData = detections.getScores();
+        final long[] labelsData = detections.getLabels();
+
+        // Select instances by score, class, top-K and NMS before any mask or keypoint is created
+        final int[] selectedInstances = filter.select(boxesData, scoresData, labelsData);
+        if (selectedInstances.length == 0) {
+            return outputs;
+        }
+
+        // [rawMasksData] is the instance mask data in the bounding box and has a size of 28 * 28 per instance
+        // @see <a href="https://github.com/facebookresearch/detectron2/discussions/3393">https://github.com/facebookresearch/detectron2/discussions/3393</a>
+        final float[] rawMasksData = hasMasks ? detections.getMasks() : null;
+
+        // keypointsData is in a format with 17 * (x, y, score) for each instance. (coco estimates have 17 keypoints)
+        final float[] keypointsData = hasKeypoints ? detections.getKeypoints() : null;
+
+        // The increase / decrease ratio of width between the formatted bitmap and the original image
+        final float imageWidthScale = width / (float) inputWidth;
+        final float imageHeightScale = height / (float) inputHeight;
+
+        for (int i : selectedInstances) {
+            Map<String, Object> output = new LinkedHashMap<>();
+            Map<String, Float> rect = new LinkedHashMap<>();
+
+            // Set rect to a value that matches the original image
+            rect.put("left", boxesData[4 * i] * imageWidthScale);
+            rect.put("top", boxesData[4 * i + 1] * imageHeightScale);
+            rect.put("right", boxesData[4 * i + 2] * imageWidthScale);
+            rect.put("bottom", boxesData[4 * i + 3] * imageHeightScale);
+
+            output.put("rect", rect);
+
+            if (hasMasks) {
+                output.put("mask", getMaskBytes(rawMasksData, i));
+            }
+
+            if (hasKeypoints) {
+                output.put("keypoints", getKeypointsList(keypointsData, i, width, height));
+            }
+
+            output.put("confidenceInClass", scoresData[i]);
+            output.put("detectedClass", classLabels.getClassName(labelsData[i]));
+
+            outputs.add(output);
+        }
+        return outputs;
+    }
+
+
+    /**
+     * <p>Converts mask data to byte array of bitmap image and returns</>
+     *
+     * @param rawMasksData Mask data included in the inference result.
+     * @param instanceIndex Inferred instance number
+     * @return bitmap image byte array
+     */
+    private static byte[] getMaskBytes(float[] rawMasksData, int instanceIndex) {
+        // rawMasksData contains 28 * 28 mask data for the number of instances
+        int rawMaskWidth = 28;
+        final float[] rawMask = Arrays.copyOfRange(rawMasksData, instanceIndex * rawMaskWidth * rawMaskWidth, (instanceIndex + 1) * rawMaskWidth * rawMaskWidth);
+
+        // color channel (RGBA)
+        final int ch = 4;
+
+        final byte[] pixels = new byte[rawMaskWidth * rawMaskWidth * ch];
+
+        // Change the color of the mask image for each instance
+        Random rand = new Random();
+        final int r = rand.nextInt(255);
+        final int g = rand.nextInt(255);
+        final int b = rand.nextInt(255);
+
+
+        // The pixel of the bitmap image to be used is saved from bottom to top in the vertical direction.
+        // @see <a href="https://en.wikipedia.org/wiki/BMP_file_format#Pixel_array_(bitmap_data)">https://en.wikipedia.org/wiki/BMP_file_format#Pixel_array_(bitmap_data)</a>
+        int offset = 0;
+        for (int i = rawMask.length; i >= rawMaskWidth; i -= rawMaskWidth) {
+            int end = i - 1, start = i - rawMaskWidth;
+            for (int j = start; j <= end; j++) {
+                // Since the masks output of the d2go model assumes 28 * 28 raw data, the mask range is 0.5 or more.
+                // @see <a href="https://detectron2.readthedocs.io/en/latest/tutorials/deployment.html#use-the-model-in-c-python">https://detectron2.readthedocs.io/en/latest/tutorials/deployment.html#use-the-model-in-c-python</a>
+                final int a = rawMask[j] < 0.5 ? 0 : 128;
+                pixels[ch * offset] = (byte) (r & 0xff);
+                pixels[ch * offset + 1] = (byte) (g & 0xff);
+                pixels[ch * offset + 2] = (byte) (b & 0xff);
+                pixels[ch * offset + 3] = (byte) (a & 0xff);
+                offset += 1;
+            }
+        }
+
+        // Concatenate pixels and bitmap headers
+        final byte[] bmpFileHeader = MaskBitmapHeader.getBMPFileHeader();
+        final byte[] bmpInfoHeader = MaskBitmapHeader.getBMPInfoHeader(rawMaskWidth, rawMaskWidth);
+        byte[] maskBytes = new byte[bmpFileHeader.length + bmpInfoHeader.length + pixels.length];
+
+        System.arraycopy(bmpFileHeader, 0, maskBytes, 0, bmpFileHeader.length);
+        System.arraycopy(bmpInfoHeader, 0, maskBytes, bmpFileHeader.length, bmpInfoHeader.length);
+        System.arraycopy(pixels, 0, maskBytes, bmpFileHeader.length + bmpInfoHeader.length, pixels.length);
+
+        return maskBytes;
+    }
+
+
+    /**
+     * <p>Return 17 keypoints (x, y) for each instance as a list</>
+     *
+     * @param keypointsData is in a format with 17 * (x, y, score) for each instance
+     * @param instanceIndex Inferred instance number
+     * @param imageWidth Image width size to infer
+     * @param imageHeight Image height size to infer
+     * @return Returns a list of 17 keypoints (x, y)
+     */
+    @NonNull
+    private static List<float[]> getKeypointsList(float[] keypointsData, int instanceIndex, int imageWidth, int imageHeight) {
+        // coco estimates have 17 keypoints
+        final int numOfKeypoints = 17;
+        final float[] keypointsPerInstance = Arrays.copyOfRange(keypointsData, instanceIndex * 3 * numOfKeypoints, (instanceIndex + 1) * 3 * numOfKeypoints);
+        List<float[]> keypointsList = new ArrayList<>();
+        for (int i = 0; i < keypointsPerInstance.length; i = 3 + i) {
+            // Since the d2go model output assumes that the input image size is 320 * 320, match the scale with the image to be inferred
+            final float x = keypointsPerInstance[i] * imageWidth / 320;
+            final float y = keypointsPerInstance[i+1] * imageHeight / 320;
+            final float[] keypoint = {x, y};
+            keypointsList.add(keypoint);
+        }
+        return keypointsList;
+    }
+}
@@ -0,0 +1,140 @@
+package com.tsubauaaa.flutter_d2go;
+
+import com.facebook.soloader.nativeloader.NativeLoader;
+import com.facebook.soloader.nativeloader.SystemDelegate;
+
+import org.pytorch.IValue;
+import org.pytorch.LiteModuleLoader;
+import org.pytorch.MemoryFormat;
+import org.pytorch.Module;
+import org.pytorch.Tensor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * <p>PyTorchInferenceEngine</>
+ *
+ * InferenceEngine that runs a D2Go model exported for the PyTorch lite interpreter with org.pytorch.Module.
+ */
+public class PyTorchInferenceEngine implements InferenceEngine {
+
+    // Dealing with torchvision options problem
+    // @see <a href="https://discuss.pytorch.org/t/torchvision-ops-nms-on-android-mobile/81017/6">https://discuss.pytorch.org/t/torchvision-ops-nms-on-android-mobile/81017/6</a>
+    static {
+        if (!NativeLoader.isInitialized()) {
+            NativeLoader.init(new SystemDelegate());
+        }
+        NativeLoader.loadLibrary("torchvision_ops");
+    }
+
+    private final Module module;
+
+    /**
+     * @param module org.pytorch.Module of the loaded D2Go model.
+     */
+    public PyTorchInferenceEngine(Module module) {
+        this.module = module;
+    }
+
+    /**
+     * <p>Load the D2Go model with LiteModuleLoader</>
+     *
+     * @param modelPath The path of the D2Go model under Application directory.
+     * @return PyTorchInferenceEngine of the loaded model
+     */
+    public static PyTorchInferenceEngine load(String modelPath) {
+        return new PyTorchInferenceEngine(LiteModuleLoader.load(modelPath));
+    }
+
+    @Override
+    public List<Detections> forward(List<InputTensor> inputs) {
+        final Tensor[] inputTensors = new Tensor[inputs.size()];
+        for (int i = 0; i < inputTensors.length; i++) {
+            inputTensors[i] = toTensor(inputs.get(i));
+        }
+        IValue[] outputTuple = module.forward(IValue.listFrom(inputTensors)).toTuple();
+
+        // outputTuple[1] is the list of the result dict per image
+        final IValue[] predictions = outputTuple[1].toList();
+        List<Detections> detections = new ArrayList<>(predictions.length);
+        for (IValue prediction : predictions) {
+            detections.add(new DictDetections(prediction.toDictStringKey()));
+        }
+        return detections;
+    }
+
+    /**
+     * <p>Destroy the native module right away rather than when it is finalized</>
+     */
+    @Override
+    public void close() {
+        module.destroy();
+    }
+
+    /**
+     * <p>Wrap the buffer of [input] in a tensor without copying it</>
+     */
+    private static Tensor toTensor(InputTensor input) {
+        if (input.uint8Data != null) {
+            return Tensor.fromBlobUnsigned(input.uint8Data, input.shape);
+        }
+        if (input.channelsLast) {
+            return Tensor.fromBlob(input.floatData, input.shape, MemoryFormat.CHANNELS_LAST);
+        }
+        return Tensor.fromBlob(input.floatData, input.shape);
+    }
+
+    /**
+     * <p>Detections read from the result dict of one image. Each tensor is copied out only when it is requested</>
+     */
+    private static class DictDetections implements Detections {
+        private final Map<String, IValue> map;
+
+        DictDetections(Map<String, IValue> map) {
+            this.map = map;
+        }
+
+        @Override
+        public float[] getBoxes() {
+            return map.containsKey("boxes") ? getTensor("boxes").getDataAsFloatArray() : new float[0];
+        }
+
+        @Override
+        public float[] getScores() {
+            return map.containsKey("boxes") ? getTensor("scores").getDataAsFloatArray() : new float[0];
+        }
+
+        @Override
+        public long[] getLabels() {
+            return map.containsKey("boxes") ? getTensor("labels").getDataAsLongArray() : new long[0];
+        }
+
+        @Override
+        public boolean hasMasks() {
+            return map.containsKey("masks");
+        }
+
+        @Override
+        public float[] getMasks() {
+            return hasMasks() ? getTensor("masks").getDataAsFloatArray() : null;
+        }
+
+        @Override
+        public boolean hasKeypoints() {
+            return map.containsKey("keypoints");
+        }
+
+        @Override
+        public float[] getKeypoints() {
+            return hasKeypoints() ? getTensor("keypoints").getDataAsFloatArray() : null;
+        }
+
+        private Tensor getTensor(String key) {
+            return requireNonNull(map.get(key)).toTensor();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.tsubauaaa.flutter_d2go;
+
+/**
+ * <p>SharedInferenceEngine</>
+ *
+ * Reference count of an InferenceEngine used from several threads. FlutterD2goHandler holds the first reference
+ * while the model is loaded, and each replay, video, benchmark and stream session frame acquires its own for as
+ * long as it calls the engine. The engine is closed as soon as the last reference is released, so the native
+ * model is freed when MemoryBudget releases it instead of when it is finalized, but never under a forward call.
+ */
+public class SharedInferenceEngine {
+
+    public final InferenceEngine engine;
+    private int references = 1;
+
+    /**
+     * @param engine InferenceEngine of the loaded model. The caller holds the first reference.
+     */
+    public SharedInferenceEngine(InferenceEngine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * <p>Add a reference, which must be released once the engine is no longer called</>
+     *
+     * @return This SharedInferenceEngine
+     * @throws IllegalStateException If the engine has already been closed
+     */
+    public synchronized SharedInferenceEngine acquire() {
+        if (references == 0) {
+            throw new IllegalStateException("InferenceEngine is already closed");
+        }
+        references++;
+        return this;
+    }
+
+    /**
+     * <p>Remove a reference and close the engine if it was the last one</>
+     */
+    public void release() {
+        synchronized (this) {
+            if (references == 0 || --references > 0) {
+                return;
+            }
+        }
+        engine.close();
+    }
+}
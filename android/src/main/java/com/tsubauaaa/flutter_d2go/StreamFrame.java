@@ -0,0 +1,59 @@
+package com.tsubauaaa.flutter_d2go;
+
+import java.util.List;
+
+/**
+ * <p>StreamFrame</>
+ *
+ * A camera stream image and the predict options it was sent with.
+ * This is what predictStreamImage infers, what FrameRecorder writes to the frame log and what FrameReplayer reads back.
+ */
+public class StreamFrame {
+    /** Bytes of the Y, U and V planes */
+    public final List<byte[]> imageBytesList;
+    /** Pixel stride of each plane */
+    public final List<Integer> imageBytesPerPixel;
+    /** Width size of the camera stream image */
+    public final int width;
+    /** Height size of the camera stream image */
+    public final int height;
+    /** Tilt according to the orientation of the image */
+    public final int rotation;
+    /** Width size for inference image resizing */
+    public final int inputWidth;
+    /** Height size for inference image resizing */
+    public final int inputHeight;
+    /** Average value used in Normalize */
+    public final float[] mean;
+    /** Standard deviation used in Normalize */
+    public final float[] std;
+    /** Threshold of the inference result */
+    public final double minScore;
+    /** Class names to be included in the results. null includes all classes */
+    public final List<String> allowedClasses;
+    /** Maximum number of instances. 0 includes all instances */
+    public final int maxDetections;
+    /** Cross-class NMS threshold. NaN disables it */
+    public final float nmsThreshold;
+    /** Name of the InputTensorFormat */
+    public final String inputFormat;
+
+    public StreamFrame(List<byte[]> imageBytesList, List<Integer> imageBytesPerPixel, int width, int height, int rotation,
+                       int inputWidth, int inputHeight, float[] mean, float[] std, double minScore,
+                       List<String> allowedClasses, int maxDetections, float nmsThreshold, String inputFormat) {
+        this.imageBytesList = imageBytesList;
+        this.imageBytesPerPixel = imageBytesPerPixel;
+        this.width = width;
+        this.height = height;
+        this.rotation = rotation;
+        this.inputWidth = inputWidth;
+        this.inputHeight = inputHeight;
+        this.mean = mean;
+        this.std = std;
+        this.minScore = minScore;
+        this.allowedClasses = allowedClasses;
+        this.maxDetections = maxDetections;
+        this.nmsThreshold = nmsThreshold;
+        this.inputFormat = inputFormat;
+    }
+}
@@ -0,0 +1,258 @@
+package com.tsubauaaa.flutter_d2go;
+
+import android.content.ComponentCallbacks2;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.RectF;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * <p>StreamSession</>
+ *
+ * Class that holds the configuration of a camera stream, validated and precomputed once when the session starts:
+ * the normalization table, the size of the rotated input tensor, the formatter and DetectionFilter of the loaded
+ * model, its own YuvToRgbConverter and a pool of the buffers that a frame needs from its planes to its input tensor.
+ * Frames are prepared in arrival order on the thread of the session, and at most [maxPendingFrames] frames are
+ * in progress at a time. The idle buffers are released through MemoryBudget when memory is getting low.
+ * Since each session converts with its own converter, sessions do not wait for each other's conversions.
+ */
+public class StreamSession implements MemoryBudget.Consumer {
+
+    /**
+     * <p>Buffers used by one frame from its planes to its input tensor</>
+     */
+    static class FrameBuffers {
+        /** Converted frame scaled and rotated to the size of the input tensor */
+        final Bitmap bitmap;
+        final Canvas canvas;
+        final int[] pixels;
+        final InputTensor inputTensor;
+        byte[] nv21;
+        int frameIndex;
+        boolean inUse;
+
+        FrameBuffers(Bitmap bitmap, int[] pixels, InputTensor inputTensor) {
+            this.bitmap = bitmap;
+            this.canvas = new Canvas(bitmap);
+            this.pixels = pixels;
+            this.inputTensor = inputTensor;
+        }
+
+        long getByteCount() {
+            final long tensorBytes = inputTensor.uint8Data != null ? inputTensor.uint8Data.capacity() : 4L * inputTensor.floatData.capacity();
+            final byte[] nv21 = this.nv21;
+            return (nv21 == null ? 0 : nv21.length) + bitmap.getAllocationByteCount() + 4L * pixels.length + tensorBytes;
+        }
+    }
+
+    public final int id;
+    /** Camera stream image size, rotation and predict options of the session, without planes */
+    public final StreamFrame config;
+    public final PredictionFormatter formatter;
+    public final DetectionFilter filter;
+    public final InputTensorFormat inputFormat;
+    public final int maxPendingFrames;
+    /** Converter used only by the thread of the session. It is released after the last frame once the session is closed */
+    final YuvToRgbConverter converter;
+    /** Size of the input tensor, which is the input size rotated by the rotation of the session */
+    public final int tensorWidth;
+    public final int tensorHeight;
+    /** The camera stream image is tilted 90 degrees, so the vertical and horizontal directions of the results are reversed */
+    public final int outputWidth;
+    public final int outputHeight;
+
+    private final float[] normalizationTable;
+    /** Maps the camera stream image to the input tensor: scaled to the input size, rotated and moved back to the origin */
+    private final Matrix inputMatrix;
+    private final Paint inputPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    private final int colorPixelStride;
+    private final ExecutorService executor;
+    private final List<FrameBuffers> allocatedBuffers = new ArrayList<>();
+    private final ArrayDeque<FrameBuffers> idleBuffers = new ArrayDeque<>();
+    private int pendingFrames;
+    private int nextFrameIndex;
+    private boolean closed;
+
+    /**
+     * <p>Validate the configuration of the camera stream and precompute what each frame needs</>
+     *
+     * @param id Id of the session
+     * @param config Camera stream image size, rotation and predict options. The planes are not used.
+     * @param formatter Formats the results with the classes of the model loaded when the session starts
+     * @param filter Selects the instances to be included in the results
+     * @param maxPendingFrames Maximum number of frames in progress. Frames that arrive beyond it are dropped.
+     * @param converter Converts YUV420 NV21 bytes to Bitmap with renderscript. It must not be shared with other users.
+     * @throws IllegalArgumentException If the configuration is not valid
+     */
+    public StreamSession(int id, StreamFrame config, PredictionFormatter formatter, DetectionFilter filter, int maxPendingFrames,
+                         YuvToRgbConverter converter) {
+        if (config.width <= 0 || config.height <= 0 || config.inputWidth <= 0 || config.inputHeight <= 0) {
+            throw new IllegalArgumentException("width, height, inputWidth and inputHeight must be positive");
+        }
+        if (config.rotation % 90 != 0) {
+            throw new IllegalArgumentException("rotation must be a multiple of 90, but was " + config.rotation);
+        }
+        if (config.mean.length != 3 || config.std.length != 3) {
+            throw new IllegalArgumentException("mean and std must have 3 values");
+        }
+        for (float value : config.std) {
+            if (value == 0) {
+                throw new IllegalArgumentException("std must not contain 0");
+            }
+        }
+        if (config.imageBytesPerPixel.size() != 3) {
+            throw new IllegalArgumentException("imageBytesPerPixel must have 3 values");
+        }
+        if (maxPendingFrames < 1) {
+            throw new IllegalArgumentException("maxPendingFrames must be at least 1");
+        }
+
+        this.id = id;
+        this.config = config;
+        this.formatter = formatter;
+        this.filter = filter;
+        this.inputFormat = InputTensorFormat.fromFormatName(config.inputFormat);
+        this.maxPendingFrames = maxPendingFrames;
+        this.converter = converter;
+        final boolean swapped = config.rotation % 180 != 0;
+        this.tensorWidth = swapped ? config.inputHeight : config.inputWidth;
+        this.tensorHeight = swapped ? config.inputWidth : config.inputHeight;
+        this.outputWidth = config.height;
+        this.outputHeight = config.width;
+        this.normalizationTable = InputTensorFormat.createNormalizationTable(config.mean, config.std);
+        this.inputMatrix = new Matrix();
+        this.inputMatrix.setScale((float) config.inputWidth / config.width, (float) config.inputHeight / config.height);
+        this.inputMatrix.postRotate(config.rotation);
+        final RectF bounds = new RectF(0, 0, config.width, config.height);
+        this.inputMatrix.mapRect(bounds);
+        this.inputMatrix.postTranslate(-bounds.left, -bounds.top);
+        this.colorPixelStride = config.imageBytesPerPixel.get(1);
+        this.executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "flutter_d2go-stream-" + id));
+    }
+
+    /**
+     * <p>Take buffers for a new frame from the pool</>
+     *
+     * @return Buffers with the index of the frame, or null if [maxPendingFrames] frames are in progress or the session is closed
+     */
+    synchronized FrameBuffers acquireBuffers() {
+        if (closed || pendingFrames >= maxPendingFrames) {
+            return null;
+        }
+        FrameBuffers buffers = idleBuffers.poll();
+        if (buffers == null) {
+            buffers = new FrameBuffers(Bitmap.createBitmap(tensorWidth, tensorHeight, Bitmap.Config.ARGB_8888),
+                    new int[tensorWidth * tensorHeight], inputFormat.allocateTensor(tensorWidth, tensorHeight));
+            allocatedBuffers.add(buffers);
+        }
+        buffers.inUse = true;
+        buffers.frameIndex = nextFrameIndex++;
+        pendingFrames++;
+        return buffers;
+    }
+
+    /**
+     * <p>Return buffers to the pool once the input tensor has been inferred. Buffers already returned are ignored</>
+     */
+    synchronized void releaseBuffers(FrameBuffers buffers) {
+        if (!buffers.inUse) {
+            return;
+        }
+        buffers.inUse = false;
+        pendingFrames--;
+        if (closed) {
+            allocatedBuffers.remove(buffers);
+            buffers.bitmap.recycle();
+        } else {
+            idleBuffers.push(buffers);
+        }
+    }
+
+    /**
+     * <p>Convert the planes of a frame to the input tensor in [buffers]</>
+     *
+     * @param imageBytesList Bytes of the Y, U and V planes of the frame
+     * @param buffers Buffers acquired for the frame
+     * @return The input tensor of [buffers], filled with the frame
+     */
+    InputTensor prepareInput(List<byte[]> imageBytesList, FrameBuffers buffers) {
+        final int nv21Length = StreamImageUtils.getNv21Length(imageBytesList);
+        if (buffers.nv21 == null || buffers.nv21.length != nv21Length) {
+            buffers.nv21 = new byte[nv21Length];
+        }
+        StreamImageUtils.toNv21(imageBytesList, colorPixelStride, config.width, config.height, buffers.nv21);
+
+        // The converted bitmap is reused by the next frame, so draw it while it is still valid.
+        // Scaling and rotation are one draw into the bitmap of [buffers], so no bitmap is allocated per frame.
+        converter.convert(buffers.nv21, config.width, config.height, bitmap -> {
+            buffers.canvas.drawBitmap(bitmap, inputMatrix, inputPaint);
+            return null;
+        });
+        buffers.bitmap.getPixels(buffers.pixels, 0, tensorWidth, 0, 0, tensorWidth, tensorHeight);
+        inputFormat.fillTensor(buffers.pixels, normalizationTable, buffers.inputTensor);
+        return buffers.inputTensor;
+    }
+
+    /**
+     * <p>Run [task] on the thread of the session after the frames submitted before it</>
+     */
+    void execute(Runnable task) {
+        executor.execute(task);
+    }
+
+    /**
+     * @param imageBytesList Bytes of the Y, U and V planes of a frame
+     * @return StreamFrame of the frame with the configuration of the session, used for the frame log
+     */
+    StreamFrame createFrame(List<byte[]> imageBytesList) {
+        return new StreamFrame(imageBytesList, config.imageBytesPerPixel, config.width, config.height, config.rotation,
+                config.inputWidth, config.inputHeight, config.mean, config.std, config.minScore, config.allowedClasses,
+                config.maxDetections, config.nmsThreshold, config.inputFormat);
+    }
+
+    synchronized boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * <p>Stop accepting frames and release the idle buffers. Frames already submitted are still processed</>
+     *
+     * The converter is released on the thread of the session after those frames.
+     */
+    synchronized void close() {
+        closed = true;
+        executor.execute(() -> converter.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE));
+        executor.shutdown();
+        releaseIdleBuffers();
+    }
+
+    @Override
+    public synchronized long getRetainedBytes() {
+        long bytes = 0;
+        for (FrameBuffers buffers : allocatedBuffers) {
+            bytes += buffers.getByteCount();
+        }
+        return bytes;
+    }
+
+    @Override
+    public synchronized void trimMemory(int level) {
+        // Only the idle buffers are released, the buffers of the frames in progress come back to the pool
+        releaseIdleBuffers();
+    }
+
+    private void releaseIdleBuffers() {
+        for (FrameBuffers buffers : idleBuffers) {
+            buffers.bitmap.recycle();
+        }
+        allocatedBuffers.removeAll(idleBuffers);
+        idleBuffers.clear();
+    }
+}
@@ -0,0 +1,203 @@
+package com.tsubauaaa.flutter_d2go;
+
+import android.graphics.Rect;
+import android.media.Image;
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * <p>VideoFrameDecoder</>
+ *
+ * Class that decodes the video track of a file with MediaExtractor and MediaCodec straight to YUV420 buffers,
+ * and passes every [frameStride]-th frame as Y, U and V planes in the same form as camera stream images.
+ */
+public class VideoFrameDecoder {
+
+    private static final long TIMEOUT_US = 10000;
+
+    /**
+     * <p>Receives each sampled frame</>
+     */
+    public interface FrameListener {
+        /**
+         * @param imageBytesList Y, U and V planes without row padding. Reused by the next frame.
+         * @param imageBytesPerPixel Pixel stride of each plane
+         * @param width Width size of the frame
+         * @param height Height size of the frame
+         * @param rotation Rotation of the video track
+         * @param frameIndex Index of the frame in the video
+         * @param timestampMicros Presentation time of the frame
+         * @throws Exception Stops the decoding
+         */
+        void onFrame(List<byte[]> imageBytesList, List<Integer> imageBytesPerPixel, int width, int height, int rotation,
+                     int frameIndex, long timestampMicros) throws Exception;
+    }
+
+    private final String path;
+
+    /**
+     * @param path The path of the video file
+     */
+    public VideoFrameDecoder(String path) {
+        this.path = path;
+    }
+
+    /**
+     * <p>Decode the video track and pass every [frameStride]-th frame to [listener] on the calling thread</>
+     *
+     * @param frameStride Interval of the frames passed to [listener]. 1 passes all frames.
+     * @param cancelled Stops the decoding when set
+     * @param listener Receives each sampled frame
+     * @throws Exception If the file has no video track, cannot be decoded or the listener throws
+     */
+    public void decode(int frameStride, AtomicBoolean cancelled, FrameListener listener) throws Exception {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        boolean started = false;
+        try {
+            extractor.setDataSource(path);
+            MediaFormat format = selectVideoTrack(extractor);
+            final int rotation = format.containsKey(MediaFormat.KEY_ROTATION) ? format.getInteger(MediaFormat.KEY_ROTATION) : 0;
+
+            // Ask the decoder for YUV420 buffers that can be read with Image
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420Flexible);
+            codec.configure(format, null, null, 0);
+            codec.start();
+            started = true;
+
+            final MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            final PlaneBuffers planes = new PlaneBuffers();
+            boolean inputDone = false;
+            int frameIndex = 0;
+            while (!cancelled.get()) {
+                if (!inputDone) {
+                    inputDone = queueInput(extractor, codec);
+                }
+
+                final int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outputIndex < 0) {
+                    // INFO_TRY_AGAIN_LATER or INFO_OUTPUT_FORMAT_CHANGED, Image carries the new format
+                    continue;
+                }
+                final boolean endOfStream = (info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0;
+                try {
+                    if (info.size > 0 && frameIndex % frameStride == 0) {
+                        try (Image image = codec.getOutputImage(outputIndex)) {
+                            if (image != null) {
+                                planes.copyFrom(image);
+                                listener.onFrame(planes.imageBytesList, planes.imageBytesPerPixel, planes.width, planes.height,
+                                        rotation, frameIndex, info.presentationTimeUs);
+                            }
+                        }
+                    }
+                } finally {
+                    codec.releaseOutputBuffer(outputIndex, false);
+                }
+                if (info.size > 0) {
+                    frameIndex++;
+                }
+                if (endOfStream) {
+                    break;
+                }
+            }
+        } finally {
+            if (codec != null) {
+                if (started) {
+                    codec.stop();
+                }
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+
+    private MediaFormat selectVideoTrack(MediaExtractor extractor) throws IOException {
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            String mime = format.getString(MediaFormat.KEY_MIME);
+            if (mime != null && mime.startsWith("video/")) {
+                extractor.selectTrack(i);
+                return format;
+            }
+        }
+        throw new IOException(path + " has no video track");
+    }
+
+    /**
+     * <p>Pass the next sample of the extractor to the decoder</>
+     *
+     * @return true if the end of stream has been queued
+     */
+    private static boolean queueInput(MediaExtractor extractor, MediaCodec codec) {
+        final int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+        if (inputIndex < 0) {
+            return false;
+        }
+        final ByteBuffer inputBuffer = codec.getInputBuffer(inputIndex);
+        final int sampleSize = inputBuffer == null ? -1 : extractor.readSampleData(inputBuffer, 0);
+        if (sampleSize < 0) {
+            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            return true;
+        }
+        codec.queueInputBuffer(inputIndex, 0, sampleSize, extractor.getSampleTime(), 0);
+        extractor.advance();
+        return false;
+    }
+
+    /**
+     * <p>Y, U and V planes copied from the decoder output without row padding, reused across frames</>
+     */
+    private static class PlaneBuffers {
+        final byte[][] planes = new byte[3][];
+        final List<byte[]> imageBytesList = Arrays.asList(planes);
+        // The copied U and V planes are no longer interleaved
+        final List<Integer> imageBytesPerPixel = Arrays.asList(1, 1, 1);
+        int width;
+        int height;
+
+        void copyFrom(Image image) {
+            final Rect crop = image.getCropRect();
+            width = crop.width();
+            height = crop.height();
+            final Image.Plane[] imagePlanes = image.getPlanes();
+            for (int i = 0; i < 3; i++) {
+                // U and V planes are subsampled by 2 in both directions
+                final int shift = i == 0 ? 0 : 1;
+                final int planeWidth = width >> shift;
+                final int planeHeight = height >> shift;
+                if (planes[i] == null || planes[i].length != planeWidth * planeHeight) {
+                    planes[i] = new byte[planeWidth * planeHeight];
+                }
+                copyPlane(imagePlanes[i], crop.left >> shift, crop.top >> shift, planeWidth, planeHeight, planes[i]);
+            }
+        }
+
+        private static void copyPlane(Image.Plane plane, int left, int top, int planeWidth, int planeHeight, byte[] out) {
+            final ByteBuffer buffer = plane.getBuffer();
+            final int rowStride = plane.getRowStride();
+            final int pixelStride = plane.getPixelStride();
+            int offset = 0;
+            for (int y = 0; y < planeHeight; y++) {
+                final int rowStart = (top + y) * rowStride + left * pixelStride;
+                if (pixelStride == 1) {
+                    buffer.position(rowStart);
+                    buffer.get(out, offset, planeWidth);
+                    offset += planeWidth;
+                } else {
+                    for (int x = 0; x < planeWidth; x++) {
+                        out[offset++] = buffer.get(rowStart + x * pixelStride);
+                    }
+                }
+            }
+        }
+    }
+}
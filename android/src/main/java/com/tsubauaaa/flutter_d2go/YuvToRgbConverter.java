@@ -0,0 +1,113 @@
+package com.tsubauaaa.flutter_d2go;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.renderscript.Allocation;
+import android.renderscript.BaseObj;
+import android.renderscript.Element;
+import android.renderscript.RenderScript;
+import android.renderscript.ScriptIntrinsicYuvToRGB;
+import android.renderscript.Type;
+
+/**
+ * <p>YuvToRgbConverter</>
+ *
+ * Class that converts YUV420 NV21 bytes to a Bitmap with RenderScript.
+ * The RenderScript context, the allocations and the output Bitmap are kept while the frame size does not change,
+ * and are released through MemoryBudget when memory is low.
+ */
+public class YuvToRgbConverter implements MemoryBudget.Consumer {
+
+    private final Context context;
+
+    private RenderScript rs;
+    private ScriptIntrinsicYuvToRGB yuvToRgbIntrinsic;
+    private Allocation in;
+    private Allocation out;
+    private Bitmap bitmap;
+    private int dataLength;
+
+    /**
+     * @param context Used in renderscript.
+     */
+    public YuvToRgbConverter(Context context) {
+        this.context = context;
+    }
+
+    /**
+     * <p>Convert YUV420 NV21 bytes to a Bitmap and pass it to [consumer]</>
+     *
+     * The Bitmap is reused by the next conversion, so [consumer] must not keep it.
+     *
+     * @param data YUV420 NV21 bytes
+     * @param width Width size of the image
+     * @param height Height size of the image
+     * @param consumer Creates the result from the converted Bitmap
+     * @return Result of [consumer]
+     */
+    public synchronized <T> T convert(byte[] data, int width, int height, BitmapConsumer<T> consumer) {
+        if (rs == null) {
+            rs = RenderScript.create(context);
+            yuvToRgbIntrinsic = ScriptIntrinsicYuvToRGB.create(rs, Element.U8_4(rs));
+        }
+        if (in == null || dataLength != data.length) {
+            destroy(in);
+            Type.Builder yuvType = new Type.Builder(rs, Element.U8(rs)).setX(data.length);
+            in = Allocation.createTyped(rs, yuvType.create(), Allocation.USAGE_SCRIPT);
+            dataLength = data.length;
+        }
+        if (bitmap == null || bitmap.getWidth() != width || bitmap.getHeight() != height) {
+            destroy(out);
+            if (bitmap != null) {
+                bitmap.recycle();
+            }
+            bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            Type.Builder rgbaType = new Type.Builder(rs, Element.RGBA_8888(rs)).setX(width).setY(height);
+            out = Allocation.createTyped(rs, rgbaType.create(), Allocation.USAGE_SCRIPT);
+        }
+
+        in.copyFrom(data);
+        yuvToRgbIntrinsic.setInput(in);
+        yuvToRgbIntrinsic.forEach(out);
+        out.copyTo(bitmap);
+        return consumer.accept(bitmap);
+    }
+
+    /**
+     * <p>Creates a result from the converted Bitmap</>
+     */
+    public interface BitmapConsumer<T> {
+        T accept(Bitmap bitmap);
+    }
+
+    @Override
+    public synchronized long getRetainedBytes() {
+        // The input allocation holds the NV21 bytes and the output allocation the same pixels as the Bitmap
+        return dataLength + (bitmap == null ? 0 : 2L * bitmap.getAllocationByteCount());
+    }
+
+    @Override
+    public synchronized void trimMemory(int level) {
+        destroy(in);
+        destroy(out);
+        in = null;
+        out = null;
+        dataLength = 0;
+        if (bitmap != null) {
+            bitmap.recycle();
+            bitmap = null;
+        }
+        destroy(yuvToRgbIntrinsic);
+        yuvToRgbIntrinsic = null;
+        if (rs != null) {
+            rs.destroy();
+            rs = null;
+        }
+    }
+
+    private static void destroy(BaseObj obj) {
+        if (obj != null) {
+            obj.destroy();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.tsubauaaa.flutter_d2go;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+public class BatchPredictorTest {
+
+    private static final int IMAGE_SIZE = 32;
+
+    @Test
+    public void fillsBatchesUpToMaxBatchSize() throws InterruptedException {
+        final RecordingEngine engine = new RecordingEngine(new FakeInferenceEngine(1, 80, 5, false, false, 0, 0));
+        final BatchPredictor batchPredictor = new BatchPredictor(engine, 4, 1000);
+        try {
+            final Results results = submitAll(batchPredictor, 8);
+            results.await();
+            assertEquals(Collections.nCopies(2, 4), engine.getBatchSizes());
+        } finally {
+            batchPredictor.shutdown();
+        }
+    }
+
+    @Test
+    public void forwardsAPartialBatchAtTheDeadline() throws InterruptedException {
+        final RecordingEngine engine = new RecordingEngine(new FakeInferenceEngine(1, 80, 5, false, false, 0, 0));
+        final BatchPredictor batchPredictor = new BatchPredictor(engine, 8, 50);
+        try {
+            final long start = System.nanoTime();
+            final Results results = submitAll(batchPredictor, 3);
+            results.await();
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(Collections.singletonList(3), engine.getBatchSizes());
+            assertTrue("waited " + elapsedMillis + " ms", elapsedMillis >= 50 && elapsedMillis < 1000);
+        } finally {
+            batchPredictor.shutdown();
+        }
+    }
+
+    @Test
+    public void returnsTheSameDetectionsAsUnbatchedInference() throws InterruptedException {
+        final FakeInferenceEngine engine = new FakeInferenceEngine(7, 80, 20, true, true, 100, 50);
+        final BatchPredictor batchPredictor = new BatchPredictor(engine, 6, 5);
+        final int count = 60;
+        final List<InputTensor> inputs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            inputs.add(createInput(i));
+        }
+
+        // Submit from several threads so that each batch mixes the requests of different callers
+        final Results results = new Results(count);
+        final List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            final int first = t;
+            threads.add(new Thread(() -> {
+                for (int i = first; i < count; i += 4) {
+                    batchPredictor.submit(inputs.get(i), results.callback(i));
+                }
+            }));
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.start();
+            }
+            results.await();
+        } finally {
+            batchPredictor.shutdown();
+        }
+
+        assertEquals(0, results.errors.get());
+        for (int i = 0; i < count; i++) {
+            final Detections batched = results.predictions.get(i);
+            final Detections unbatched = engine.forward(inputs.get(i));
+            assertArrayEquals(unbatched.getBoxes(), batched.getBoxes(), 0f);
+            assertArrayEquals(unbatched.getScores(), batched.getScores(), 0f);
+            assertArrayEquals(unbatched.getLabels(), batched.getLabels());
+            assertArrayEquals(unbatched.getMasks(), batched.getMasks(), 0f);
+            assertArrayEquals(unbatched.getKeypoints(), batched.getKeypoints(), 0f);
+        }
+    }
+
+    @Test
+    public void shutdownFailsPendingRequests() {
+        // The first request stays in forward until the worker is interrupted by shutdown
+        final FakeInferenceEngine engine = new FakeInferenceEngine(1, 80, 5, false, false, TimeUnit.SECONDS.toMicros(10), 0);
+        final BatchPredictor batchPredictor = new BatchPredictor(engine, 1, 0);
+        final Results results = submitAll(batchPredictor, 5);
+        batchPredictor.shutdown();
+
+        // Every request has been answered by the time shutdown returns
+        assertEquals(0, results.remaining.getCount());
+        assertTrue(results.errors.get() >= 4);
+
+        final Results late = submitAll(batchPredictor, 1);
+        assertEquals(1, late.errors.get());
+    }
+
+    private static Results submitAll(BatchPredictor batchPredictor, int count) {
+        final Results results = new Results(count);
+        for (int i = 0; i < count; i++) {
+            batchPredictor.submit(createInput(i), results.callback(i));
+        }
+        return results;
+    }
+
+    /**
+     * <p>uint8 image whose pixels depend on [index], so that each image gets its own detections</>
+     */
+    private static InputTensor createInput(int index) {
+        final ByteBuffer data = InputTensor.allocateByteBuffer(3 * IMAGE_SIZE * IMAGE_SIZE);
+        for (int i = 0; i < data.capacity(); i++) {
+            data.put(i, (byte) (i * 31 + index * 17));
+        }
+        return InputTensor.fromUint8(data, new long[]{1, 3, IMAGE_SIZE, IMAGE_SIZE});
+    }
+
+    /**
+     * <p>Collects the result of each submitted request by its index</>
+     */
+    private static class Results {
+        final AtomicReferenceArray<Detections> predictions;
+        final AtomicInteger errors = new AtomicInteger();
+        final CountDownLatch remaining;
+
+        Results(int count) {
+            predictions = new AtomicReferenceArray<>(count);
+            remaining = new CountDownLatch(count);
+        }
+
+        BatchPredictor.Callback callback(int index) {
+            return new BatchPredictor.Callback() {
+                @Override
+                public void onPrediction(Detections prediction) {
+                    assertNotNull(prediction);
+                    predictions.set(index, prediction);
+                    remaining.countDown();
+                }
+
+                @Override
+                public void onError(Exception e) {
+                    errors.incrementAndGet();
+                    remaining.countDown();
+                }
+            };
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("requests were not answered in time", remaining.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    /**
+     * <p>InferenceEngine that records the size of each forward call</>
+     */
+    private static class RecordingEngine implements InferenceEngine {
+        private final InferenceEngine engine;
+        private final List<Integer> batchSizes = new ArrayList<>();
+
+        RecordingEngine(InferenceEngine engine) {
+            this.engine = engine;
+        }
+
+        @Override
+        public List<Detections> forward(List<InputTensor> inputs) {
+            synchronized (batchSizes) {
+                batchSizes.add(inputs.size());
+            }
+            return engine.forward(inputs);
+        }
+
+        @Override
+        public void close() {
+            engine.close();
+        }
+
+        List<Integer> getBatchSizes() {
+            synchronized (batchSizes) {
+                return new ArrayList<>(batchSizes);
+            }
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.tsubauaaa.flutter_d2go;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class DetectionFilterTest {
+
+    private static final float[] BOXES = {
+            0, 0, 10, 10,
+            1, 1, 11, 11,
+            20, 20, 30, 30,
+            0, 0, 10, 10,
+            40, 40, 50, 50,
+    };
+    private static final float[] SCORES = {0.9f, 0.8f, 0.7f, 0.3f, 0.7f};
+    private static final long[] LABELS = {1, 2, 1, 3, 2};
+
+    @Test
+    public void keepsModelOrderWithoutTopKOrNms() {
+        final DetectionFilter filter = new DetectionFilter(0.5, null, 0, Float.NaN);
+        assertArrayEquals(new int[]{0, 1, 2, 4}, filter.select(BOXES, SCORES, LABELS));
+    }
+
+    @Test
+    public void dropsLabelsThatAreNotAllowed() {
+        final boolean[] allowedLabels = {false, true, false, true};
+        final DetectionFilter filter = new DetectionFilter(0.0, allowedLabels, 0, Float.NaN);
+        assertArrayEquals(new int[]{0, 2, 3}, filter.select(BOXES, SCORES, LABELS));
+    }
+
+    @Test
+    public void keepsTopKByScoreWithTiesInModelOrder() {
+        final DetectionFilter filter = new DetectionFilter(0.0, null, 3, Float.NaN);
+        assertArrayEquals(new int[]{0, 1, 2}, filter.select(BOXES, SCORES, LABELS));
+    }
+
+    @Test
+    public void suppressesOverlappingBoxesAcrossClasses() {
+        // Box 1 overlaps box 0 with an IoU of about 0.68 and box 3 is identical to box 0
+        final DetectionFilter filter = new DetectionFilter(0.0, null, 0, 0.5f);
+        assertArrayEquals(new int[]{0, 2, 4}, filter.select(BOXES, SCORES, LABELS));
+    }
+
+    @Test
+    public void limitsNmsResultsToTopK() {
+        final DetectionFilter filter = new DetectionFilter(0.0, null, 2, 0.5f);
+        assertArrayEquals(new int[]{0, 2}, filter.select(BOXES, SCORES, LABELS));
+    }
+
+    @Test
+    public void topKMatchesFullSort() {
+        final Random random = new Random(42);
+        for (int trial = 0; trial < 200; trial++) {
+            final int n = 1 + random.nextInt(300);
+            final float[] scores = new float[n];
+            for (int i = 0; i < n; i++) {
+                // Few distinct values so that ties are common
+                scores[i] = random.nextInt(20) / 20.0f;
+            }
+            final int maxDetections = 1 + random.nextInt(n);
+            final double minScore = random.nextInt(5) / 20.0;
+
+            final DetectionFilter filter = new DetectionFilter(minScore, null, maxDetections, Float.NaN);
+            final int[] selected = filter.select(new float[4 * n], scores, new long[n]);
+            final int[] expected = sortByScore(scores, minScore);
+            if (expected.length > maxDetections) {
+                assertArrayEquals(Arrays.copyOf(expected, maxDetections), selected);
+            } else {
+                // The instances are kept in model order when no more than [maxDetections] pass
+                final int[] inModelOrder = expected.clone();
+                Arrays.sort(inModelOrder);
+                assertArrayEquals(inModelOrder, selected);
+            }
+        }
+    }
+
+    /**
+     * <p>Indexes of the instances at or above [minScore], in descending order of score and then in model order</>
+     */
+    private static int[] sortByScore(float[] scores, double minScore) {
+        final List<Integer> indexes = new ArrayList<>();
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] >= minScore) {
+                indexes.add(i);
+            }
+        }
+        indexes.sort((a, b) -> scores[a] != scores[b] ? Float.compare(scores[b], scores[a]) : Integer.compare(a, b));
+        final int[] sorted = new int[indexes.size()];
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = indexes.get(i);
+        }
+        return sorted;
+    }
+}
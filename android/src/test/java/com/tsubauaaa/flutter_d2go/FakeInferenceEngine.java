@@ -0,0 +1,202 @@
+package com.tsubauaaa.flutter_d2go;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>FakeInferenceEngine</>
+ *
+ * InferenceEngine written in plain Java that emits synthetic boxes, masks and keypoints in the layout of
+ * the D2Go result dict after a configurable delay. It needs no native library, so the batching, filtering
+ * and formatting can be load-tested on a plain JVM.
+ *
+ * The detections of an image only depend on [seed] and a sample of the input data, so the same image gets
+ * the same detections whether it is inferred alone or in a batch.
+ */
+public class FakeInferenceEngine implements InferenceEngine {
+
+    private static final int MASK_SIZE = 28;
+    private static final int NUM_KEYPOINTS = 17;
+    // Number of input values hashed to seed the detections of an image
+    private static final int HASH_SAMPLES = 64;
+
+    private final long seed;
+    private final int numClasses;
+    private final int instancesPerImage;
+    private final boolean withMasks;
+    private final boolean withKeypoints;
+    private final long forwardDelayNanos;
+    private final long imageDelayNanos;
+
+    /**
+     * @param seed Seed of the synthetic detections
+     * @param numClasses Number of classes. Label ids are drawn from 1 to [numClasses].
+     * @param instancesPerImage Number of instances emitted per image
+     * @param withMasks Whether 28 * 28 masks are emitted
+     * @param withKeypoints Whether 17 keypoints are emitted per instance
+     * @param forwardDelayMicros Delay of each forward call regardless of the number of images
+     * @param imageDelayMicros Additional delay per image in a forward call
+     */
+    public FakeInferenceEngine(long seed, int numClasses, int instancesPerImage, boolean withMasks, boolean withKeypoints,
+                               long forwardDelayMicros, long imageDelayMicros) {
+        this.seed = seed;
+        this.numClasses = numClasses;
+        this.instancesPerImage = instancesPerImage;
+        this.withMasks = withMasks;
+        this.withKeypoints = withKeypoints;
+        this.forwardDelayNanos = TimeUnit.MICROSECONDS.toNanos(forwardDelayMicros);
+        this.imageDelayNanos = TimeUnit.MICROSECONDS.toNanos(imageDelayMicros);
+    }
+
+    @Override
+    public List<Detections> forward(List<InputTensor> inputs) {
+        simulateDelay(forwardDelayNanos + imageDelayNanos * inputs.size());
+        List<Detections> detections = new ArrayList<>(inputs.size());
+        for (InputTensor input : inputs) {
+            detections.add(createDetections(input));
+        }
+        return detections;
+    }
+
+    @Override
+    public void close() {
+        // Nothing is held outside the Java heap
+    }
+
+    private Detections createDetections(InputTensor input) {
+        final Random random = new Random(seed * 31 + sampleHash(input));
+        final int width = input.getWidth();
+        final int height = input.getHeight();
+        final int n = instancesPerImage;
+
+        final float[] boxes = new float[4 * n];
+        final float[] scores = new float[n];
+        final long[] labels = new long[n];
+        final float[] masks = withMasks ? new float[n * MASK_SIZE * MASK_SIZE] : null;
+        final float[] keypoints = withKeypoints ? new float[n * NUM_KEYPOINTS * 3] : null;
+
+        // Scores are in descending order as in the D2Go outputs
+        float score = 1.0f;
+        for (int i = 0; i < n; i++) {
+            score *= 0.5f + 0.5f * random.nextFloat();
+            final float boxWidth = width * (0.1f + 0.4f * random.nextFloat());
+            final float boxHeight = height * (0.1f + 0.4f * random.nextFloat());
+            final float left = (width - boxWidth) * random.nextFloat();
+            final float top = (height - boxHeight) * random.nextFloat();
+            boxes[4 * i] = left;
+            boxes[4 * i + 1] = top;
+            boxes[4 * i + 2] = left + boxWidth;
+            boxes[4 * i + 3] = top + boxHeight;
+            scores[i] = score;
+            labels[i] = 1 + random.nextInt(numClasses);
+
+            if (masks != null) {
+                fillMask(masks, i * MASK_SIZE * MASK_SIZE, 0.3f + 0.2f * random.nextFloat());
+            }
+            if (keypoints != null) {
+                for (int k = 0; k < NUM_KEYPOINTS; k++) {
+                    final int offset = (i * NUM_KEYPOINTS + k) * 3;
+                    keypoints[offset] = left + boxWidth * random.nextFloat();
+                    keypoints[offset + 1] = top + boxHeight * random.nextFloat();
+                    keypoints[offset + 2] = random.nextFloat();
+                }
+            }
+        }
+        return new ArrayDetections(boxes, scores, labels, masks, keypoints);
+    }
+
+    /**
+     * <p>Write an ellipse of probabilities falling from 1 at the center to 0 at [radius] of the mask size</>
+     */
+    private static void fillMask(float[] masks, int offset, float radius) {
+        final float center = (MASK_SIZE - 1) / 2.0f;
+        for (int y = 0; y < MASK_SIZE; y++) {
+            for (int x = 0; x < MASK_SIZE; x++) {
+                final float dx = (x - center) / MASK_SIZE;
+                final float dy = (y - center) / MASK_SIZE;
+                final float distance = (float) Math.sqrt(dx * dx + dy * dy) / radius;
+                masks[offset + y * MASK_SIZE + x] = Math.max(0.0f, 1.0f - distance);
+            }
+        }
+    }
+
+    /**
+     * <p>Hash the shape and a fixed number of evenly spaced values of [input]</>
+     */
+    private static long sampleHash(InputTensor input) {
+        long hash = Arrays.hashCode(input.shape);
+        final int size = input.uint8Data != null ? input.uint8Data.limit() : input.floatData.limit();
+        final int step = Math.max(1, size / HASH_SAMPLES);
+        for (int i = 0; i < size; i += step) {
+            final int value = input.uint8Data != null ? input.uint8Data.get(i) : Float.floatToIntBits(input.floatData.get(i));
+            hash = 31 * hash + value;
+        }
+        return hash;
+    }
+
+    /**
+     * <p>Block the calling thread like a forward call would, without sleeping past [nanos]</>
+     */
+    private static void simulateDelay(long nanos) {
+        final long deadline = System.nanoTime() + nanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static class ArrayDetections implements Detections {
+        private final float[] boxes;
+        private final float[] scores;
+        private final long[] labels;
+        private final float[] masks;
+        private final float[] keypoints;
+
+        ArrayDetections(float[] boxes, float[] scores, long[] labels, float[] masks, float[] keypoints) {
+            this.boxes = boxes;
+            this.scores = scores;
+            this.labels = labels;
+            this.masks = masks;
+            this.keypoints = keypoints;
+        }
+
+        @Override
+        public float[] getBoxes() {
+            return boxes;
+        }
+
+        @Override
+        public float[] getScores() {
+            return scores;
+        }
+
+        @Override
+        public long[] getLabels() {
+            return labels;
+        }
+
+        @Override
+        public boolean hasMasks() {
+            return masks != null;
+        }
+
+        @Override
+        public float[] getMasks() {
+            return masks;
+        }
+
+        @Override
+        public boolean hasKeypoints() {
+            return keypoints != null;
+        }
+
+        @Override
+        public float[] getKeypoints() {
+            return keypoints;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.tsubauaaa.flutter_d2go;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FrameReplayDriverTest {
+
+    private static final int WIDTH = 640;
+    private static final int HEIGHT = 480;
+    private static final int INPUT_SIZE = 320;
+    private static final int RECORDINGS = 4;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void replaysAFrameLogThroughTheEngineAndReportsTheThroughput() throws Exception {
+        final File log = temporaryFolder.newFile();
+        // Each recording stays within the frames the writer thread can queue
+        for (int recording = 0; recording < RECORDINGS; recording++) {
+            try (FrameRecorder recorder = new FrameRecorder(log)) {
+                for (int i = 0; i < FrameRecorder.MAX_PENDING_RECORDS; i++) {
+                    final String inputFormat = InputTensorFormat.values()[i % InputTensorFormat.values().length].getFormatName();
+                    recorder.record(createFrame(WIDTH, HEIGHT, INPUT_SIZE, INPUT_SIZE, i, inputFormat), System.nanoTime(), 1000);
+                }
+            }
+        }
+
+        final ClassLabels classLabels = new ClassLabels(Arrays.asList("person", "bicycle", "car"));
+        final FakeInferenceEngine engine = new FakeInferenceEngine(3, classLabels.getClasses().size(), 20, true, true, 0, 0);
+        final FrameReplayDriver driver = new FrameReplayDriver(engine, new PredictionFormatter(classLabels), new JavaPreprocessor());
+        final Map<String, Object> report;
+        try (FrameReplayer replayer = new FrameReplayer(log)) {
+            report = driver.run(replayer, false);
+        }
+
+        System.out.println("FrameReplayDriverTest " + WIDTH + "x" + HEIGHT + " -> " + INPUT_SIZE + "x" + INPUT_SIZE + ": " + report);
+        assertEquals(RECORDINGS * FrameRecorder.MAX_PENDING_RECORDS, report.get("frames"));
+        assertTrue((Double) report.get("framesPerSecond") > 0);
+        assertEquals(0.001, (Double) report.get("recordedAverageProcessingMillis"), 1e-9);
+    }
+
+    @Test
+    public void preprocessesWithTheRotationOfTheFrame() throws Exception {
+        // A 4x2 gray image whose Y values are 0 to 7 in row order
+        final StreamFrame frame = createFrame(4, 2, 4, 2, 0, InputTensorFormat.UINT8.getFormatName());
+        final InputTensor tensor = new JavaPreprocessor().prepare(frame);
+
+        // Rotating by 90 degrees clockwise makes the left column of the image its top row, from bottom to top
+        assertEquals(2, tensor.getWidth());
+        assertEquals(4, tensor.getHeight());
+        final int[] expected = {4, 0, 5, 1, 6, 2, 7, 3};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i] * 10, tensor.uint8Data.get(i) & 0xff);
+        }
+    }
+
+    /**
+     * <p>NV21 planes of a gray image whose Y value of pixel i is (i * 10 + index) & 0xff</>
+     */
+    private static StreamFrame createFrame(int width, int height, int inputWidth, int inputHeight, int index, String inputFormat) {
+        final byte[] y = new byte[width * height];
+        for (int i = 0; i < y.length; i++) {
+            y[i] = (byte) (i * 10 + index);
+        }
+        final byte[] u = new byte[width * height / 4];
+        final byte[] v = new byte[width * height / 4];
+        Arrays.fill(u, (byte) 128);
+        Arrays.fill(v, (byte) 128);
+        return new StreamFrame(Arrays.asList(y, u, v), Arrays.asList(1, 1, 1), width, height, 90, inputWidth, inputHeight,
+                new float[]{0.485f, 0.456f, 0.406f}, new float[]{0.229f, 0.224f, 0.225f}, 0.5,
+                index % 2 == 0 ? null : Collections.singletonList("person"), 10, 0.6f, inputFormat);
+    }
+
+    /**
+     * <p>Java version of the stream preprocessing of the plugin, in place of RenderScript and Bitmap</>
+     *
+     * It converts NV21 to RGB with BT.601 and resizes with nearest neighbour, so only the throughput and
+     * the orientation match the device, not the exact pixel values.
+     */
+    private static class JavaPreprocessor implements FrameReplayDriver.Preprocessor {
+        @Override
+        public InputTensor prepare(StreamFrame frame) {
+            final int width = frame.width;
+            final int height = frame.height;
+            final byte[] nv21 = new byte[StreamImageUtils.getNv21Length(frame.imageBytesList)];
+            StreamImageUtils.toNv21(frame.imageBytesList, frame.imageBytesPerPixel.get(1), width, height, nv21);
+
+            final boolean swapped = frame.rotation % 180 != 0;
+            final int tensorWidth = swapped ? frame.inputHeight : frame.inputWidth;
+            final int tensorHeight = swapped ? frame.inputWidth : frame.inputHeight;
+            final int[] pixels = new int[tensorWidth * tensorHeight];
+            for (int ty = 0; ty < tensorHeight; ty++) {
+                for (int tx = 0; tx < tensorWidth; tx++) {
+                    // Position in the resized image before the clockwise rotation
+                    final int sx, sy;
+                    switch (frame.rotation) {
+                        case 90:
+                            sx = ty;
+                            sy = frame.inputHeight - 1 - tx;
+                            break;
+                        case 180:
+                            sx = frame.inputWidth - 1 - tx;
+                            sy = frame.inputHeight - 1 - ty;
+                            break;
+                        case 270:
+                            sx = frame.inputWidth - 1 - ty;
+                            sy = tx;
+                            break;
+                        default:
+                            sx = tx;
+                            sy = ty;
+                    }
+                    pixels[ty * tensorWidth + tx] = toArgb(nv21, width, height,
+                            sx * width / frame.inputWidth, sy * height / frame.inputHeight);
+                }
+            }
+
+            final InputTensorFormat format = InputTensorFormat.fromFormatName(frame.inputFormat);
+            final InputTensor tensor = format.allocateTensor(tensorWidth, tensorHeight);
+            format.fillTensor(pixels, InputTensorFormat.createNormalizationTable(frame.mean, frame.std), tensor);
+            return tensor;
+        }
+
+        private static int toArgb(byte[] nv21, int width, int height, int x, int y) {
+            final int luma = nv21[y * width + x] & 0xff;
+            final int chroma = width * height + (y / 2) * width + (x / 2) * 2;
+            final int v = (nv21[chroma] & 0xff) - 128;
+            final int u = (nv21[chroma + 1] & 0xff) - 128;
+            final int r = clamp(Math.round(luma + 1.402f * v));
+            final int g = clamp(Math.round(luma - 0.344136f * u - 0.714136f * v));
+            final int b = clamp(Math.round(luma + 1.772f * u));
+            return 0xff000000 | (r << 16) | (g << 8) | b;
+        }
+
+        private static int clamp(int value) {
+            return Math.max(0, Math.min(255, value));
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package com.tsubauaaa.flutter_d2go;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FrameReplayerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void replaysFramesAcrossMappedWindows() throws Exception {
+        final File log = temporaryFolder.newFile();
+        final List<StreamFrame> recorded = new ArrayList<>();
+        try (FrameRecorder recorder = new FrameRecorder(log)) {
+            // Stay within the frames the writer thread can queue
+            for (int i = 0; i < FrameRecorder.MAX_PENDING_RECORDS; i++) {
+                final StreamFrame frame = createFrame(i, 300 + 150 * i);
+                recorder.record(frame, i, 1000 + i);
+                recorded.add(frame);
+            }
+        }
+
+        // Windows smaller than most records make every record cross a window boundary or get its own window
+        final List<StreamFrame> replayed = new ArrayList<>();
+        final List<Long> processingNanos = new ArrayList<>();
+        try (FrameReplayer replayer = new FrameReplayer(log, 1024)) {
+            final int frames = replayer.replay((frame, recordedProcessingNanos) -> {
+                replayed.add(frame);
+                processingNanos.add(recordedProcessingNanos);
+            }, false);
+            assertEquals(recorded.size(), frames);
+        }
+
+        for (int i = 0; i < recorded.size(); i++) {
+            final StreamFrame expected = recorded.get(i);
+            final StreamFrame actual = replayed.get(i);
+            assertEquals(1000 + i, (long) processingNanos.get(i));
+            assertEquals(expected.width, actual.width);
+            assertEquals(expected.height, actual.height);
+            assertEquals(expected.rotation, actual.rotation);
+            assertArrayEquals(expected.mean, actual.mean, 0f);
+            assertArrayEquals(expected.std, actual.std, 0f);
+            assertEquals(expected.allowedClasses, actual.allowedClasses);
+            assertEquals(expected.nmsThreshold, actual.nmsThreshold, 0f);
+            assertNull(actual.inputFormat);
+            assertEquals(expected.imageBytesPerPixel, actual.imageBytesPerPixel);
+            for (int plane = 0; plane < expected.imageBytesList.size(); plane++) {
+                assertArrayEquals(expected.imageBytesList.get(plane), actual.imageBytesList.get(plane));
+            }
+        }
+    }
+
+    @Test
+    public void restartsTheClockOnlyAtANewRecording() throws Exception {
+        final File log = temporaryFolder.newFile();
+        try (FrameRecorder recorder = new FrameRecorder(log)) {
+            final long base = System.nanoTime();
+            // Frames are recorded when their result is ready, so a frame may follow one that arrived later
+            recorder.record(createFrame(0, 10), base, 0);
+            recorder.record(createFrame(1, 10), base + TimeUnit.MILLISECONDS.toNanos(200), 0);
+            recorder.record(createFrame(2, 10), base + TimeUnit.MILLISECONDS.toNanos(100), 0);
+            recorder.record(createFrame(3, 10), base + TimeUnit.MILLISECONDS.toNanos(300), 0);
+        }
+        try (FrameRecorder recorder = new FrameRecorder(log)) {
+            // Arrival times are relative to the start of each recording
+            recorder.record(createFrame(4, 10), System.nanoTime(), 0);
+        }
+
+        try (FrameReplayer replayer = new FrameReplayer(log)) {
+            final long start = System.nanoTime();
+            final int frames = replayer.replay((frame, recordedProcessingNanos) -> {
+            }, true);
+            final long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            assertEquals(5, frames);
+            // The first recording takes 300 ms and the appended one starts right after it
+            assertTrue("replayed in " + elapsedMillis + " ms", elapsedMillis >= 300 && elapsedMillis < 390);
+        }
+    }
+
+    @Test
+    public void rejectsLogsOfAnotherVersion() throws Exception {
+        final File log = temporaryFolder.newFile();
+        final ByteBuffer header = ByteBuffer.allocate(FrameRecorder.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(FrameRecorder.MAGIC).putInt(FrameRecorder.VERSION - 1);
+        Files.write(log.toPath(), header.array());
+
+        assertThrowsIOException(() -> new FrameReplayer(log).close());
+        assertThrowsIOException(() -> new FrameRecorder(log).close());
+    }
+
+    private interface IOAction {
+        void run() throws IOException;
+    }
+
+    private static void assertThrowsIOException(IOAction action) {
+        try {
+            action.run();
+        } catch (IOException e) {
+            return;
+        }
+        throw new AssertionError("IOException was not thrown");
+    }
+
+    private static StreamFrame createFrame(int index, int planeLength) {
+        final List<byte[]> planes = new ArrayList<>();
+        for (int plane = 0; plane < 3; plane++) {
+            final byte[] bytes = new byte[planeLength];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) (i + index * 7 + plane);
+            }
+            planes.add(bytes);
+        }
+        return new StreamFrame(planes, Arrays.asList(1, 2, 2), 640 + index, 480, 90, 320, 320,
+                new float[]{0.5f, 0.5f, 0.5f}, new float[]{0.25f, 0.25f, 0.25f}, 0.5,
+                index % 2 == 0 ? null : Arrays.asList("person", "car"), 10, 0.6f, null);
+    }
+}
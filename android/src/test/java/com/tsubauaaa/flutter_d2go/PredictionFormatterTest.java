@@ -0,0 +1,162 @@
+package com.tsubauaaa.flutter_d2go;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PredictionFormatterTest {
+
+    private static final ClassLabels CLASS_LABELS = new ClassLabels(Arrays.asList("person", "bicycle", "car"));
+
+    private static final int MASK_SIZE = 28;
+    private static final int NUM_KEYPOINTS = 17;
+
+    @Test
+    public void scalesBoxesToTheImageAndNamesClasses() {
+        final Detections detections = new TestDetections(
+                new float[]{10, 20, 30, 40, 0, 0, 160, 160},
+                new float[]{0.9f, 0.6f},
+                new long[]{3, 1},
+                null, null);
+        final PredictionFormatter formatter = new PredictionFormatter(CLASS_LABELS);
+        final List<Map<String, Object>> outputs = formatter.format(detections, new DetectionFilter(0.5, null, 0, Float.NaN),
+                320, 320, 640, 480);
+
+        assertEquals(2, outputs.size());
+        final Map<String, Object> first = outputs.get(0);
+        final Map<?, ?> rect = (Map<?, ?>) first.get("rect");
+        assertEquals(20f, (Float) rect.get("left"), 1e-4f);
+        assertEquals(30f, (Float) rect.get("top"), 1e-4f);
+        assertEquals(60f, (Float) rect.get("right"), 1e-4f);
+        assertEquals(60f, (Float) rect.get("bottom"), 1e-4f);
+        assertEquals(0.9f, (Float) first.get("confidenceInClass"), 0f);
+        assertEquals("car", first.get("detectedClass"));
+        assertFalse(first.containsKey("mask"));
+        assertFalse(first.containsKey("keypoints"));
+        assertEquals("person", outputs.get(1).get("detectedClass"));
+    }
+
+    @Test
+    public void appliesTheFilterBeforeFormatting() {
+        final Detections detections = new TestDetections(
+                new float[]{0, 0, 10, 10, 0, 0, 10, 10, 50, 50, 60, 60},
+                new float[]{0.9f, 0.8f, 0.4f},
+                new long[]{1, 2, 2},
+                null, null);
+        final DetectionFilter filter = new DetectionFilter(0.5, CLASS_LABELS.getAllowedLabels(Arrays.asList("bicycle")), 0, Float.NaN);
+        final List<Map<String, Object>> outputs = new PredictionFormatter(CLASS_LABELS).format(detections, filter, 320, 320, 320, 320);
+
+        assertEquals(1, outputs.size());
+        assertEquals("bicycle", outputs.get(0).get("detectedClass"));
+        assertEquals(0.8f, (Float) outputs.get(0).get("confidenceInClass"), 0f);
+    }
+
+    @Test
+    public void encodesMasksAsBitmapsAndScalesKeypoints() {
+        final float[] masks = new float[MASK_SIZE * MASK_SIZE];
+        // Only the first row of the mask is above the threshold
+        Arrays.fill(masks, 0, MASK_SIZE, 1.0f);
+        final float[] keypoints = new float[NUM_KEYPOINTS * 3];
+        keypoints[0] = 160;
+        keypoints[1] = 80;
+        keypoints[2] = 0.5f;
+        final Detections detections = new TestDetections(new float[]{0, 0, 10, 10}, new float[]{0.9f}, new long[]{2}, masks, keypoints);
+        final List<Map<String, Object>> outputs = new PredictionFormatter(CLASS_LABELS).format(detections,
+                new DetectionFilter(0.0, null, 0, Float.NaN), 320, 320, 640, 480);
+
+        final byte[] mask = (byte[]) outputs.get(0).get("mask");
+        final int headerSize = MaskBitmapHeader.getBMPFileHeader().length + MaskBitmapHeader.getBMPInfoHeader(MASK_SIZE, MASK_SIZE).length;
+        assertEquals(headerSize + MASK_SIZE * MASK_SIZE * 4, mask.length);
+        // Bitmap rows are stored from bottom to top, so the first mask row is the last bitmap row
+        assertEquals(0, mask[headerSize + 3]);
+        assertEquals((byte) 128, mask[mask.length - 1]);
+
+        final List<?> keypointsList = (List<?>) outputs.get(0).get("keypoints");
+        assertEquals(NUM_KEYPOINTS, keypointsList.size());
+        assertArrayEquals(new float[]{320, 120}, (float[]) keypointsList.get(0), 1e-4f);
+    }
+
+    @Test
+    public void reusesTheAllowedLabelsOfTheSameClasses() {
+        final ClassLabels classLabels = new ClassLabels(Arrays.asList("person", "bicycle", "car"));
+        final boolean[] allowedLabels = classLabels.getAllowedLabels(Arrays.asList("person", "car"));
+        assertArrayEquals(new boolean[]{false, true, false, true}, allowedLabels);
+        assertSame(allowedLabels, classLabels.getAllowedLabels(Arrays.asList("person", "car")));
+        assertNull(classLabels.getAllowedLabels(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsClassesThatAreNotInTheClassesFile() {
+        CLASS_LABELS.getAllowedLabels(Arrays.asList("person", "dog"));
+    }
+
+    @Test
+    public void keepsTheClassesItWasCreatedWith() {
+        final List<String> classes = new ArrayList<>(Arrays.asList("person", "bicycle"));
+        final ClassLabels classLabels = new ClassLabels(classes);
+        classes.clear();
+        assertEquals("bicycle", classLabels.getClassName(2));
+        assertTrue(classLabels.getClasses().contains("person"));
+    }
+
+    private static class TestDetections implements Detections {
+        private final float[] boxes;
+        private final float[] scores;
+        private final long[] labels;
+        private final float[] masks;
+        private final float[] keypoints;
+
+        TestDetections(float[] boxes, float[] scores, long[] labels, float[] masks, float[] keypoints) {
+            this.boxes = boxes;
+            this.scores = scores;
+            this.labels = labels;
+            this.masks = masks;
+            this.keypoints = keypoints;
+        }
+
+        @Override
+        public float[] getBoxes() {
+            return boxes;
+        }
+
+        @Override
+        public float[] getScores() {
+            return scores;
+        }
+
+        @Override
+        public long[] getLabels() {
+            return labels;
+        }
+
+        @Override
+        public boolean hasMasks() {
+            return masks != null;
+        }
+
+        @Override
+        public float[] getMasks() {
+            return masks;
+        }
+
+        @Override
+        public boolean hasKeypoints() {
+            return keypoints != null;
+        }
+
+        @Override
+        public float[] getKeypoints() {
+            return keypoints;
+        }
+    }
+}
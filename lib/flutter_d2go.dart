@@ -30,6 +30,38 @@ const double kMinScore = 0.5;
 /// Tilt according to the orientation of the image to be inferred.
 const int kRotation = 0;
 
+/// Maximum number of instances in the inference result. 0 means no limit.
+const int kMaxDetections = 0;
+
+/// Interval of the video frames to be inferred. 1 infers all frames.
+const int kFrameStride = 1;
+
+/// Layout and dtype of the tensor input to the model (Android only).
+///
+/// [float32] is the normalized (3, height, width) float tensor that the exported d2go models expect.
+/// [float32ChannelsLast] is the normalized (1, 3, height, width) float tensor in channels-last memory format,
+/// and [uint8] is the raw RGB (3, height, width) byte tensor for models exported with in-graph normalization.
+/// Both of them need a model exported to accept that input.
+enum InputFormat { float32, float32ChannelsLast, uint8 }
+
+/// Input tensor format of the inference.
+const InputFormat kInputFormat = InputFormat.float32;
+
+/// Number of untimed runs per input format in the benchmark.
+const int kBenchmarkWarmupIterations = 3;
+
+/// Number of timed runs per input format in the benchmark.
+const int kBenchmarkIterations = 10;
+
+/// Maximum number of images inferred in one forward call. 1 disables batching.
+const int kMaxBatchSize = 1;
+
+/// Maximum time in milliseconds to wait for more images to fill a batch.
+const int kMaxBatchWaitMillis = 10;
+
+/// Maximum number of frames of a stream session in progress. Frames beyond it are dropped.
+const int kMaxPendingFrames = 2;
+
 /// Infer using d2go in flutter.
 ///
 /// Inference can be done for a static image and camera stream images.
@@ -38,6 +70,13 @@ const int kRotation = 0;
 class FlutterD2go {
   static const MethodChannel _channel =
       MethodChannel('tsubauaaa.com/flutter_d2go');
+  static const EventChannel _videoChannel =
+      EventChannel('tsubauaaa.com/flutter_d2go/video');
+  static const EventChannel _streamChannel =
+      EventChannel('tsubauaaa.com/flutter_d2go/stream');
+  static final Stream<Map> _streamSessionPredictions = _streamChannel
+      .receiveBroadcastStream()
+      .map((event) => event as Map);
 
   /// Load d2go model and label file.
   ///
@@ -46,12 +85,21 @@ class FlutterD2go {
   /// A method that calls loadModel with invokeMethod and creates pytorch module and
   /// label ArrayList on the Native side.
   ///
+  /// When [maxBatchSize] is greater than 1, predictions requested concurrently are
+  /// collected for up to [maxBatchWaitMillis] and inferred in one forward call (Android only).
+  ///
   /// Returns `success` string on success and error message on failure.
-  static Future<String?> loadModel(
-      {required String modelPath, required String labelPath}) async {
+  static Future<String?> loadModel({
+    required String modelPath,
+    required String labelPath,
+    int maxBatchSize = kMaxBatchSize,
+    int maxBatchWaitMillis = kMaxBatchWaitMillis,
+  }) async {
     return await _channel.invokeMethod('loadModel', {
       'modelPath': modelPath,
       'labelPath': labelPath,
+      'maxBatchSize': maxBatchSize,
+      'maxBatchWaitMillis': maxBatchWaitMillis,
     });
   }
 
@@ -61,6 +109,11 @@ class FlutterD2go {
   /// the mean [mean] and standard deviation [std] for image normalization,
   /// the threshold of the inference result [minScore], and get the inference result.
   ///
+  /// On Android, the result can be narrowed to the class names in [allowedClasses],
+  /// the top [maxDetections] instances by score, and instances that do not overlap
+  /// a higher score instance of any class by more than the IoU [nmsThreshold].
+  /// [inputFormat] selects the layout and dtype of the tensor input to the model.
+  ///
   /// The format is List of
   /// `{ "rect": { "left": double, "top": double, "right": double, "bottom": double }, "mask": Uint8List,
   /// "keypoints": [[double, double], [double, double], [double, double], [double, double], ...],
@@ -74,6 +127,10 @@ class FlutterD2go {
     List<double> mean = kNormMean,
     List<double> std = kNormStd,
     double minScore = kMinScore,
+    List<String>? allowedClasses,
+    int maxDetections = kMaxDetections,
+    double? nmsThreshold,
+    InputFormat inputFormat = kInputFormat,
   }) async {
     final List prediction = await _channel.invokeMethod(
       'predictImage',
@@ -84,6 +141,10 @@ class FlutterD2go {
         'mean': mean,
         'std': std,
         'minScore': minScore,
+        'allowedClasses': allowedClasses,
+        'maxDetections': maxDetections,
+        'nmsThreshold': nmsThreshold,
+        'inputFormat': _inputFormatName(inputFormat),
       },
     );
 
@@ -98,7 +159,9 @@ class FlutterD2go {
   /// the mean [mean] and standard deviation [std] for image normalization,
   /// the threshold of the inference result [minScore],
   /// the tilt according to the orientation of the image to be inferred [rotation],
-  /// and get the inference result.
+  /// the class names [allowedClasses], the number of instances [maxDetections]
+  /// and the cross-class NMS threshold [nmsThreshold] to narrow the result,
+  /// the input tensor format [inputFormat], and get the inference result.
   /// The format is List of { "rect": { "left": double, "top": double, "right": double, "bottom": double },
   ///                         "mask": Uint8List,
   ///                         "keypoints": [[double, double], [double, double], [double, double], [double, double], ...],
@@ -114,6 +177,10 @@ class FlutterD2go {
     List<double> std = kNormStd,
     double minScore = kMinScore,
     int rotation = kRotation,
+    List<String>? allowedClasses,
+    int maxDetections = kMaxDetections,
+    double? nmsThreshold,
+    InputFormat inputFormat = kInputFormat,
   }) async {
     final List prediction = await _channel.invokeMethod(
       'predictStreamImage',
@@ -128,9 +195,229 @@ class FlutterD2go {
         'std': std,
         'minScore': minScore,
         'rotation': rotation,
+        'allowedClasses': allowedClasses,
+        'maxDetections': maxDetections,
+        'nmsThreshold': nmsThreshold,
+        'inputFormat': _inputFormatName(inputFormat),
       },
     );
 
     return prediction;
   }
+
+  /// Start a session of camera stream images (Android only).
+  ///
+  /// The stream image size [width], [height], the pixel strides [imageBytesPerPixel],
+  /// the image size for inference [inputWidth], [inputHeight],
+  /// the mean [mean] and standard deviation [std] for image normalization,
+  /// the threshold of the inference result [minScore], the tilt [rotation],
+  /// the class names [allowedClasses], the number of instances [maxDetections],
+  /// the cross-class NMS threshold [nmsThreshold] and the input tensor format [inputFormat]
+  /// are the same as [getStreamImagePrediction], but they are validated and prepared only once.
+  /// At most [maxPendingFrames] frames are in progress at a time.
+  ///
+  /// Returns the session id passed to [addStreamSessionFrame] and [stopStreamSession].
+  static Future<int> startStreamSession({
+    List<int?> imageBytesPerPixel = kBytesPerPixel,
+    int width = kWidth,
+    int height = kHeight,
+    int inputWidth = kInputWidth,
+    int inputHeight = kInputHeight,
+    List<double> mean = kNormMean,
+    List<double> std = kNormStd,
+    double minScore = kMinScore,
+    int rotation = kRotation,
+    List<String>? allowedClasses,
+    int maxDetections = kMaxDetections,
+    double? nmsThreshold,
+    InputFormat inputFormat = kInputFormat,
+    int maxPendingFrames = kMaxPendingFrames,
+  }) async {
+    final int sessionId = await _channel.invokeMethod(
+      'startStreamSession',
+      {
+        'imageBytesPerPixel': imageBytesPerPixel,
+        'width': width,
+        'height': height,
+        'inputWidth': inputWidth,
+        'inputHeight': inputHeight,
+        'mean': mean,
+        'std': std,
+        'minScore': minScore,
+        'rotation': rotation,
+        'allowedClasses': allowedClasses,
+        'maxDetections': maxDetections,
+        'nmsThreshold': nmsThreshold,
+        'inputFormat': _inputFormatName(inputFormat),
+        'maxPendingFrames': maxPendingFrames,
+      },
+    );
+
+    return sessionId;
+  }
+
+  /// Queue the camera stream image [imageBytesList] of the session [sessionId] (Android only).
+  ///
+  /// The inference result is sent to [streamSessionPredictions].
+  ///
+  /// Returns the index of the frame, or -1 if the frame is dropped because
+  /// `maxPendingFrames` frames of the session are in progress.
+  static Future<int> addStreamSessionFrame({
+    required int sessionId,
+    required List<Uint8List> imageBytesList,
+  }) async {
+    final int frameIndex = await _channel.invokeMethod(
+      'addStreamSessionFrame',
+      {
+        'sessionId': sessionId,
+        'imageBytesList': imageBytesList,
+      },
+    );
+
+    return frameIndex;
+  }
+
+  /// Stop the session [sessionId] (Android only).
+  ///
+  /// The results of its frames still in progress are not sent.
+  ///
+  /// Returns `success` string on success.
+  static Future<String?> stopStreamSession({required int sessionId}) async {
+    return await _channel.invokeMethod('stopStreamSession', {
+      'sessionId': sessionId,
+    });
+  }
+
+  /// The inference results of the frames of all stream sessions (Android only).
+  ///
+  /// Each event is `{ "sessionId": int, "frameIndex": int, "predictions": List }`,
+  /// where "predictions" has the same format as [getStreamImagePrediction].
+  /// A frame that fails is sent as a [PlatformException] with
+  /// `{ "sessionId": int, "frameIndex": int }` in its details.
+  static Stream<Map> get streamSessionPredictions => _streamSessionPredictions;
+
+  /// Get the inference results of the frames of a video file (Android only).
+  ///
+  /// The video file [video] (required) is decoded on the native side and every [frameStride]-th frame
+  /// is inferred with the image size for inference [inputWidth], [inputHeight],
+  /// the mean [mean] and standard deviation [std] for image normalization,
+  /// the threshold of the inference result [minScore], the class names [allowedClasses],
+  /// the number of instances [maxDetections], the cross-class NMS threshold [nmsThreshold]
+  /// and the input tensor format [inputFormat].
+  ///
+  /// Each event of the stream is
+  /// `{ "frameIndex": int, "timestampMicros": int, "predictions": List }`,
+  /// where "predictions" has the same format as [getStreamImagePrediction].
+  /// The stream is closed after the last frame. Cancel the subscription to stop decoding.
+  static Stream<Map> getVideoPrediction({
+    required File video,
+    int frameStride = kFrameStride,
+    int inputWidth = kInputWidth,
+    int inputHeight = kInputHeight,
+    List<double> mean = kNormMean,
+    List<double> std = kNormStd,
+    double minScore = kMinScore,
+    List<String>? allowedClasses,
+    int maxDetections = kMaxDetections,
+    double? nmsThreshold,
+    InputFormat inputFormat = kInputFormat,
+  }) {
+    return _videoChannel.receiveBroadcastStream({
+      'path': video.path,
+      'frameStride': frameStride,
+      'inputWidth': inputWidth,
+      'inputHeight': inputHeight,
+      'mean': mean,
+      'std': std,
+      'minScore': minScore,
+      'allowedClasses': allowedClasses,
+      'maxDetections': maxDetections,
+      'nmsThreshold': nmsThreshold,
+      'inputFormat': _inputFormatName(inputFormat),
+    }).map((event) => event as Map);
+  }
+
+  /// Compare the input tensor formats end to end on the loaded model (Android only).
+  ///
+  /// Using the image file [image] (required), the image size for inference [inputWidth], [inputHeight],
+  /// the mean [mean] and standard deviation [std] for image normalization and
+  /// the threshold of the inference result [minScore], each [InputFormat] is run
+  /// [warmupIterations] times untimed and [iterations] times timed.
+  /// Do not run predictions while the benchmark is in progress.
+  ///
+  /// The format is Map of the format name to
+  /// `{ "fillMicros": double, "forwardMicros": double, "formatMicros": double, "totalMicros": double, "instances": int }`,
+  /// or `{ "error": String }` if the model does not accept the format.
+  /// A model exported for D2Go accepts only [InputFormat.float32], so compare the other formats with
+  /// models exported to accept them, as described in the README.
+  /// `fillMicros` is the conversion of the pixels to the layout of the format, with the tensor allocated once.
+  static Future<Map> benchmarkInputFormats({
+    required File image,
+    int inputWidth = kInputWidth,
+    int inputHeight = kInputHeight,
+    List<double> mean = kNormMean,
+    List<double> std = kNormStd,
+    double minScore = kMinScore,
+    int warmupIterations = kBenchmarkWarmupIterations,
+    int iterations = kBenchmarkIterations,
+  }) async {
+    final Map report = await _channel.invokeMethod(
+      'benchmarkInputFormats',
+      {
+        'image': image.readAsBytesSync(),
+        'inputWidth': inputWidth,
+        'inputHeight': inputHeight,
+        'mean': mean,
+        'std': std,
+        'minScore': minScore,
+        'warmupIterations': warmupIterations,
+        'iterations': iterations,
+      },
+    );
+
+    return report;
+  }
+
+  /// Start appending the camera stream images passed to [getStreamImagePrediction] to a frame log (Android only).
+  ///
+  /// Each frame is written with its planes, size, rotation, predict options and processing time
+  /// to the file at the absolute path [path]. Frames are appended if the file already exists,
+  /// which must then be a frame log written by the same version of the plugin.
+  ///
+  /// Returns `success` string on success.
+  static Future<String?> startFrameRecording({required String path}) async {
+    return await _channel.invokeMethod('startFrameRecording', {
+      'path': path,
+    });
+  }
+
+  /// Stop recording the camera stream images (Android only).
+  ///
+  /// Returns `success` string on success.
+  static Future<String?> stopFrameRecording() async {
+    return await _channel.invokeMethod('stopFrameRecording', {});
+  }
+
+  /// Feed the frames of the frame log at [path] through the stream inference again (Android only).
+  ///
+  /// If [realtime] is true, frames are fed at their recorded arrival times, otherwise as fast as possible.
+  /// Do not run predictions while the replay is in progress.
+  ///
+  /// The format is `{ "frames": int, "elapsedMillis": double, "framesPerSecond": double,
+  /// "averageProcessingMillis": double, "recordedAverageProcessingMillis": double }`.
+  static Future<Map> replayFrames({
+    required String path,
+    bool realtime = false,
+  }) async {
+    final Map report = await _channel.invokeMethod('replayFrames', {
+      'path': path,
+      'realtime': realtime,
+    });
+
+    return report;
+  }
+
+  static String _inputFormatName(InputFormat inputFormat) {
+    return inputFormat.toString().split('.').last;
+  }
 }
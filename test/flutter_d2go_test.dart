@@ -18,8 +18,15 @@ void main() {
   setUp(() {
     channel.setMockMethodCallHandler((MethodCall methodCall) async {
       log.add(methodCall);
-      if (methodCall.method == 'loadModel') {
+      if (methodCall.method == 'loadModel' ||
+          methodCall.method == 'startFrameRecording' ||
+          methodCall.method == 'stopFrameRecording' ||
+          methodCall.method == 'stopStreamSession') {
         return "success";
+      } else if (methodCall.method == 'startStreamSession') {
+        return 1;
+      } else if (methodCall.method == 'addStreamSessionFrame') {
+        return 0;
       } else if (methodCall.method == 'predictImage') {
         return [
           {
@@ -33,6 +40,24 @@ void main() {
             'detectedClass': "bicycle",
           },
         ];
+      } else if (methodCall.method == 'replayFrames') {
+        return {
+          'frames': 120,
+          'elapsedMillis': 4000.0,
+          'framesPerSecond': 30.0,
+          'averageProcessingMillis': 31.5,
+          'recordedAverageProcessingMillis': 33.0,
+        };
+      } else if (methodCall.method == 'benchmarkInputFormats') {
+        return {
+          'float32': {
+            'fillMicros': 1200.0,
+            'forwardMicros': 85000.0,
+            'formatMicros': 300.0,
+            'totalMicros': 86500.0,
+            'instances': 1,
+          },
+        };
       } else {
         return [
           {
@@ -65,6 +90,26 @@ void main() {
       isMethodCall('loadModel', arguments: <String, dynamic>{
         'modelPath': '${current.path}/example/assets/models/d2go.pt',
         'labelPath': '${current.path}/example/assets/models/classes.txt',
+        'maxBatchSize': kMaxBatchSize,
+        'maxBatchWaitMillis': kMaxBatchWaitMillis,
+      })
+    ]);
+  });
+
+  test('loadModel with batching', () async {
+    final res = await FlutterD2go.loadModel(
+      modelPath: '${current.path}/example/assets/models/d2go.pt',
+      labelPath: '${current.path}/example/assets/models/classes.txt',
+      maxBatchSize: 4,
+      maxBatchWaitMillis: 20,
+    );
+    expect(res, "success");
+    expect(log, <Matcher>[
+      isMethodCall('loadModel', arguments: <String, dynamic>{
+        'modelPath': '${current.path}/example/assets/models/d2go.pt',
+        'labelPath': '${current.path}/example/assets/models/classes.txt',
+        'maxBatchSize': 4,
+        'maxBatchWaitMillis': 20,
       })
     ]);
   });
@@ -94,6 +139,34 @@ void main() {
         'mean': kNormMean,
         'std': kNormStd,
         'minScore': kMinScore,
+        'allowedClasses': null,
+        'maxDetections': kMaxDetections,
+        'nmsThreshold': null,
+        'inputFormat': 'float32',
+      })
+    ]);
+  });
+
+  test('getImagePrediction with filters', () async {
+    await FlutterD2go.getImagePrediction(
+      image: File('${current.path}/example/assets/images/test1.png'),
+      allowedClasses: ['person', 'bicycle'],
+      maxDetections: 5,
+      nmsThreshold: 0.6,
+    );
+    expect(log, <Matcher>[
+      isMethodCall('predictImage', arguments: <String, dynamic>{
+        'image': File('${current.path}/example/assets/images/test1.png')
+            .readAsBytesSync(),
+        'inputWidth': kInputWidth,
+        'inputHeight': kInputHeight,
+        'mean': kNormMean,
+        'std': kNormStd,
+        'minScore': kMinScore,
+        'allowedClasses': ['person', 'bicycle'],
+        'maxDetections': 5,
+        'nmsThreshold': 0.6,
+        'inputFormat': 'float32',
       })
     ]);
   });
@@ -131,7 +204,154 @@ void main() {
         'std': kNormStd,
         'minScore': kMinScore,
         'rotation': kRotation,
+        'allowedClasses': null,
+        'maxDetections': kMaxDetections,
+        'nmsThreshold': null,
+        'inputFormat': 'float32',
+      })
+    ]);
+  });
+
+  test('getStreamImagePrediction with uint8 input', () async {
+    await FlutterD2go.getStreamImagePrediction(
+      imageBytesList: [
+        Uint8List.fromList([0, 1, 2])
+      ],
+      inputFormat: InputFormat.uint8,
+    );
+    expect(log.single.arguments['inputFormat'], 'uint8');
+  });
+
+  test('benchmarkInputFormats', () async {
+    final res = await FlutterD2go.benchmarkInputFormats(
+      image: File('${current.path}/example/assets/images/test1.png'),
+      iterations: 5,
+    );
+    expect(res['float32']['instances'], 1);
+    expect(log, <Matcher>[
+      isMethodCall('benchmarkInputFormats', arguments: <String, dynamic>{
+        'image': File('${current.path}/example/assets/images/test1.png')
+            .readAsBytesSync(),
+        'inputWidth': kInputWidth,
+        'inputHeight': kInputHeight,
+        'mean': kNormMean,
+        'std': kNormStd,
+        'minScore': kMinScore,
+        'warmupIterations': kBenchmarkWarmupIterations,
+        'iterations': 5,
+      })
+    ]);
+  });
+
+  test('frame recording and replay', () async {
+    expect(await FlutterD2go.startFrameRecording(path: '/tmp/frames.bin'),
+        "success");
+    expect(await FlutterD2go.stopFrameRecording(), "success");
+    final res = await FlutterD2go.replayFrames(path: '/tmp/frames.bin');
+    expect(res['frames'], 120);
+    expect(log, <Matcher>[
+      isMethodCall('startFrameRecording', arguments: <String, dynamic>{
+        'path': '/tmp/frames.bin',
+      }),
+      isMethodCall('stopFrameRecording', arguments: <String, dynamic>{}),
+      isMethodCall('replayFrames', arguments: <String, dynamic>{
+        'path': '/tmp/frames.bin',
+        'realtime': false,
+      }),
+    ]);
+  });
+
+  test('stream session', () async {
+    const MethodChannel streamChannel =
+        MethodChannel('tsubauaaa.com/flutter_d2go/stream');
+    final List<MethodCall> streamLog = <MethodCall>[];
+    streamChannel.setMockMethodCallHandler((MethodCall methodCall) async {
+      streamLog.add(methodCall);
+      return null;
+    });
+
+    final subscription = FlutterD2go.streamSessionPredictions.listen((_) {});
+    final sessionId = await FlutterD2go.startStreamSession(
+      rotation: 90,
+      maxDetections: 10,
+      maxPendingFrames: 3,
+    );
+    expect(sessionId, 1);
+    final imageBytesList = [
+      Uint8List.fromList([0, 1]),
+      Uint8List.fromList([2]),
+      Uint8List.fromList([3]),
+    ];
+    expect(
+        await FlutterD2go.addStreamSessionFrame(
+          sessionId: sessionId,
+          imageBytesList: imageBytesList,
+        ),
+        0);
+    expect(await FlutterD2go.stopStreamSession(sessionId: sessionId),
+        "success");
+    expect(streamLog, <Matcher>[isMethodCall('listen', arguments: null)]);
+    expect(log, <Matcher>[
+      isMethodCall('startStreamSession', arguments: <String, dynamic>{
+        'imageBytesPerPixel': kBytesPerPixel,
+        'width': kWidth,
+        'height': kHeight,
+        'inputWidth': kInputWidth,
+        'inputHeight': kInputHeight,
+        'mean': kNormMean,
+        'std': kNormStd,
+        'minScore': kMinScore,
+        'rotation': 90,
+        'allowedClasses': null,
+        'maxDetections': 10,
+        'nmsThreshold': null,
+        'inputFormat': 'float32',
+        'maxPendingFrames': 3,
+      }),
+      isMethodCall('addStreamSessionFrame', arguments: <String, dynamic>{
+        'sessionId': 1,
+        'imageBytesList': imageBytesList,
+      }),
+      isMethodCall('stopStreamSession', arguments: <String, dynamic>{
+        'sessionId': 1,
+      }),
+    ]);
+
+    await subscription.cancel();
+    streamChannel.setMockMethodCallHandler(null);
+  });
+
+  test('getVideoPrediction', () async {
+    const MethodChannel videoChannel =
+        MethodChannel('tsubauaaa.com/flutter_d2go/video');
+    final List<MethodCall> videoLog = <MethodCall>[];
+    videoChannel.setMockMethodCallHandler((MethodCall methodCall) async {
+      videoLog.add(methodCall);
+      return null;
+    });
+
+    final subscription = FlutterD2go.getVideoPrediction(
+      video: File('${current.path}/example/assets/videos/test1.mp4'),
+      frameStride: 3,
+    ).listen((_) {});
+    await Future<void>.delayed(Duration.zero);
+    expect(videoLog, <Matcher>[
+      isMethodCall('listen', arguments: <String, dynamic>{
+        'path': '${current.path}/example/assets/videos/test1.mp4',
+        'frameStride': 3,
+        'inputWidth': kInputWidth,
+        'inputHeight': kInputHeight,
+        'mean': kNormMean,
+        'std': kNormStd,
+        'minScore': kMinScore,
+        'allowedClasses': null,
+        'maxDetections': kMaxDetections,
+        'nmsThreshold': null,
+        'inputFormat': 'float32',
       })
     ]);
+
+    await subscription.cancel();
+    videoChannel.setMockMethodCallHandler(null);
   });
 }